@@ -13,10 +13,24 @@ import java.util.stream.IntStream;
 
 public class Allocation {
     public Zone zone;
-    public Map<String, List<Integer>> data;
+    // Partitions of each disk as read, keyed by disk name
+    public Map<String, int[]> data;
 
-    public Map<Location, Integer> locationToPartitionMap;
-    public Map<Integer, List<Location>> partitionToLocationListMap;
+    // Partition held by each location, indexed by Location.globalIndex. UNALLOCATED for free locations
+    public int[] locationToPartition;
+    // CSR index of the locations holding each partition. The locations of partition firstPartition + p are
+    // partitionLocations[partitionLocationStart[p]] .. partitionLocations[partitionLocationStart[p + 1] - 1]
+    public int[] partitionLocationStart;
+    public int[] partitionLocations;
+    public int firstPartition;
+    public int allocatedLocationCount;
+
+    public static final int UNALLOCATED = -1;
+
+    // Map views over the arrays, built on first use
+    private Map<Location, Integer> locationToPartitionMap;
+    private Map<Integer, List<Location>> partitionToLocationListMap;
+    private AllocationIndex index;
 
     public List<Location> unAllocatedLocationList;
     public Map<String, List<Integer>> overAllocatedPartitions;
@@ -24,35 +38,44 @@ public class Allocation {
     public List<Integer> existingPartitionList;
     public List<Integer> partitionList;
 
-    public Allocation(Zone zone, String fileName) {
+    public Allocation(Zone zone, String fileName) throws IOException {
         System.out.println("Reading allocation from file:" + fileName);
 
-        Map<String, List<Integer>> diskNameToPartitionListMap = new LinkedHashMap<>();
+        Map<String, int[]> diskNameToPartitionsMap = new LinkedHashMap<>();
 
-        if(fileName != null && !fileName.isEmpty()) {
-            readFromFile(fileName).forEach((hostName, hostData) ->
-                    hostData.forEach((diskLocalName, diskData) ->
-                            diskNameToPartitionListMap.put(hostName + "[" + diskLocalName + "]", diskData)));
+        if(fileName != null && fileName.endsWith(AllocationSnapshot.EXTENSION)) {
+            diskNameToPartitionsMap = AllocationSnapshot.read(fileName);
+        } else if(fileName != null && !fileName.isEmpty()) {
+            Map<String, int[]> m = diskNameToPartitionsMap;
+            read(fileName, (keys, values, size) ->
+                    m.put(keys[0] + "[" + keys[1] + "]", Arrays.copyOf(values, size)));
         }
-        setFromData(zone, diskNameToPartitionListMap);
+        setFromData(zone, diskNameToPartitionsMap);
+    }
+
+    /* DISKNAMETOPARTITIONSMAP holds the partitions of each disk keyed by disk name, disks missing from the zone
+       having their partitions over-allocated */
+    public Allocation(Zone zone, Map<String, int[]> diskNameToPartitionsMap) {
+        setFromData(zone, diskNameToPartitionsMap);
     }
 
     public Allocation(Zone zone, List<SetVar> diskVarList) {
-        Map<String, List<Integer>> diskNameToPartitionListMap = diskVarList.stream()
-                .collect(Collectors.toMap(var -> var.getName(), var -> Arrays.stream(var.getValue().toArray()).boxed().collect(Collectors.toList())));
+        Map<String, int[]> diskNameToPartitionsMap = diskVarList.stream()
+                .collect(Collectors.toMap(var -> var.getName(), var -> var.getValue().toArray()));
 
-        setFromData(zone, diskNameToPartitionListMap);
+        setFromData(zone, diskNameToPartitionsMap);
     }
 
-    private void setFromData(Zone zone, Map<String, List<Integer>> diskNameToPartitionListMap) {
-        this.data = diskNameToPartitionListMap;
+    private void setFromData(Zone zone, Map<String, int[]> diskNameToPartitionsMap) {
+        this.data = diskNameToPartitionsMap;
         this.zone = zone;
         int partitionCapacity = zone.capacity / Context.REPLICATION_FACTOR;
 
-        existingPartitionList = diskNameToPartitionListMap.values().stream()
-                .flatMap(v -> v.stream())
+        existingPartitionList = diskNameToPartitionsMap.values().stream()
+                .flatMapToInt(Arrays::stream)
                 .sorted()
                 .distinct()
+                .boxed()
                 .collect(Collectors.toList());
 
         int smallestPartition = 0;
@@ -63,33 +86,136 @@ public class Allocation {
         }
         partitionList = IntStream.range(smallestPartition, smallestPartition + partitionCapacity).boxed().collect(Collectors.toList());
 
-        locationToPartitionMap = new LinkedHashMap<>();
-        partitionToLocationListMap = new LinkedHashMap<>();
+        // Drop the views of the previous data
+        locationToPartitionMap = null;
+        partitionToLocationListMap = null;
+        index = null;
+
+        firstPartition = smallestPartition;
+        locationToPartition = new int[zone.locationList.size()];
+        partitionLocationStart = new int[partitionCapacity + 1];
+        allocatedLocationCount = 0;
 
         unAllocatedLocationList = new ArrayList<>();
-        overAllocatedPartitions = Util.deepCopy(diskNameToPartitionListMap);
 
         for (Disk disk: zone.diskList) {
-            List<Integer> partitionList = diskNameToPartitionListMap.getOrDefault(disk.name, new ArrayList<>());
+            int[] partitions = diskNameToPartitionsMap.getOrDefault(disk.name, new int[0]);
             for(Location location: disk.locationList) {
-                if(location.index < partitionList.size() && (partitionList.get(location.index) <= largestPartition)) {
-                    Integer partition = partitionList.get(location.index);
-                    locationToPartitionMap.put(location, partition);
-                    Util.getOrCreateList(partitionToLocationListMap, partition).add(location);
-
-                    overAllocatedPartitions.get(disk.name).remove(partition);
+                if(location.index < partitions.length && (partitions[location.index] <= largestPartition)) {
+                    int partition = partitions[location.index];
+                    locationToPartition[location.globalIndex] = partition;
+                    partitionLocationStart[partition - firstPartition + 1]++;
+                    allocatedLocationCount++;
                 } else {
+                    locationToPartition[location.globalIndex] = UNALLOCATED;
                     unAllocatedLocationList.add(location);
                 }
             }
         }
-        overAllocatedPartitions = overAllocatedPartitions.entrySet().stream().filter(e -> !e.getValue().isEmpty()).collect(Util.toMap());
+
+        // Prefix sums give the start of each partition, then fill its slots in location order
+        for (int p = 0; p < partitionCapacity; p++) {
+            partitionLocationStart[p + 1] += partitionLocationStart[p];
+        }
+        partitionLocations = new int[allocatedLocationCount];
+        int[] next = Arrays.copyOf(partitionLocationStart, partitionCapacity);
+        for (Location location: zone.locationList) {
+            int partition = locationToPartition[location.globalIndex];
+            if (partition != UNALLOCATED) {
+                partitionLocations[next[partition - firstPartition]++] = location.globalIndex;
+            }
+        }
+        // Partitions past the capacity of their disk or outside the partition range, disks missing from the zone
+        Map<String, Disk> nameToDiskMap = zone.diskList.stream().collect(Collectors.toMap(d -> d.name, d -> d));
+        overAllocatedPartitions = new LinkedHashMap<>();
+        for (Map.Entry<String, int[]> entry: diskNameToPartitionsMap.entrySet()) {
+            String diskName = entry.getKey();
+            int[] partitions = entry.getValue();
+            Disk disk = nameToDiskMap.get(diskName);
+            int capacity = disk == null ? 0 : disk.capacity;
+            List<Integer> overAllocatedList = new ArrayList<>();
+            for (int i = 0; i < partitions.length; i++) {
+                if (i >= capacity || partitions[i] > largestPartition) {
+                    overAllocatedList.add(partitions[i]);
+                }
+            }
+            if (!overAllocatedList.isEmpty()) {
+                overAllocatedPartitions.put(diskName, overAllocatedList);
+            }
+        }
 
         System.out.println("Unallocated locations: " + unAllocatedLocationList.size());
         System.out.println("OverAllocated partitions: " + overAllocatedPartitions);
 
     }
 
+    public boolean isEmpty() {
+        return allocatedLocationCount == 0;
+    }
+
+    public int getPartition(Location location) {
+        return locationToPartition[location.globalIndex];
+    }
+
+    /* Partitions held by the locations of DISK, in location order */
+    public int[] getPartitions(Disk disk) {
+        return disk.locationList.stream()
+                .mapToInt(this::getPartition)
+                .filter(partition -> partition != UNALLOCATED)
+                .toArray();
+    }
+
+    /* Number of locations holding the partition */
+    public int getReplicaCount(int partition) {
+        int p = partition - firstPartition;
+        if (p < 0 || p >= partitionLocationStart.length - 1) return 0;
+        return partitionLocationStart[p + 1] - partitionLocationStart[p];
+    }
+
+    public synchronized Map<Location, Integer> getLocationToPartitionMap() {
+        if (locationToPartitionMap == null) {
+            Map<Location, Integer> m = new LinkedHashMap<>();
+            for (Location location: zone.locationList) {
+                int partition = locationToPartition[location.globalIndex];
+                if (partition != UNALLOCATED) m.put(location, partition);
+            }
+            locationToPartitionMap = Collections.unmodifiableMap(m);
+        }
+        return locationToPartitionMap;
+    }
+
+    public synchronized Map<Integer, List<Location>> getPartitionToLocationListMap() {
+        if (partitionToLocationListMap == null) {
+            partitionToLocationListMap = Collections.unmodifiableMap(getPartitionToUnitListMap(location -> location));
+        }
+        return partitionToLocationListMap;
+    }
+
+    /* Partition indexes of all the levels, built on first use */
+    public synchronized AllocationIndex getIndex() {
+        if (index == null) {
+            index = new AllocationIndex(this);
+        }
+        return index;
+    }
+
+    /* Partitions in the order they first appear in the zone, each with the units of its locations */
+    private <T> Map<Integer, List<T>> getPartitionToUnitListMap(Function<Location, T> mapper) {
+        Map<Integer, List<T>> m = new LinkedHashMap<>();
+        for (Location location: zone.locationList) {
+            int partition = locationToPartition[location.globalIndex];
+            if (partition == UNALLOCATED || m.containsKey(partition)) continue;
+
+            int p = partition - firstPartition;
+            List<T> unitList = new ArrayList<>(partitionLocationStart[p + 1] - partitionLocationStart[p]);
+            for (int i = partitionLocationStart[p]; i < partitionLocationStart[p + 1]; i++) {
+                unitList.add(mapper.apply(zone.locationList.get(partitionLocations[i])));
+            }
+            m.put(partition, unitList);
+        }
+        return m;
+    }
+
     public static <K, V, T> Map<K, List<T>> mapMapValueList(Map<K, List<V>> m, Function<V, T> mapper) {
         return m.entrySet().stream()
                 .map(Util.mapMapValueList(mapper))
@@ -103,50 +229,57 @@ public class Allocation {
     }
 
     public Map<Integer, List<Disk>> getPartitionToDiskListMap() {
-        return mapMapValueList(partitionToLocationListMap, location -> location.disk);
+        return getIndex().disk.toPartitionToUnitListMap();
     }
 
     public Map<Disk, List<Integer>> getDiskToPartitionListMap() {
-        return mapMapKeyAndAggregate(locationToPartitionMap, location -> location.disk);
+        return getIndex().disk.toUnitToPartitionListMap();
     }
 
     public Map<Integer, List<Host>> getPartitionToHostListMap() {
-        return mapMapValueList(partitionToLocationListMap, location -> location.host);
+        return getIndex().host.toPartitionToUnitListMap();
     }
 
     public Map<Host, List<Integer>> getHostToPartitionListMap() {
-        return mapMapKeyAndAggregate(locationToPartitionMap, location -> location.host);
+        return getIndex().host.toUnitToPartitionListMap();
     }
 
     public Map<Integer, List<Chassis>> getPartitionToChassisListMap() {
-        return mapMapValueList(partitionToLocationListMap, location -> location.chassis);
+        return getIndex().chassis.toPartitionToUnitListMap();
     }
 
     public Map<Chassis, List<Integer>> getChassisToPartitionListMap() {
-        return mapMapKeyAndAggregate(locationToPartitionMap, location -> location.chassis);
+        return getIndex().chassis.toUnitToPartitionListMap();
     }
 
     public Map<Integer, List<Rack>> getPartitionToRackListMap() {
-        return mapMapValueList(partitionToLocationListMap, location -> location.rack);
+        return getIndex().rack.toPartitionToUnitListMap();
     }
 
     public Map<Rack, List<Integer>> getRackToPartitionListMap() {
-        return mapMapKeyAndAggregate(locationToPartitionMap, location -> location.rack);
+        return getIndex().rack.toUnitToPartitionListMap();
     }
 
-    public static Map<String, Map<String, List<Integer>>> readFromFile(String fileName){
-        //InputStream inputStream = allocator.Allocation.class.getClassLoader().getResourceAsStream(fileName);
-        InputStream inputStream = null;
-        try {
-            inputStream = new FileInputStream(fileName);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        return new Yaml().load(inputStream);
+    public static Map<String, Map<String, List<Integer>>> readFromFile(String fileName) throws IOException {
+        Map<String, Map<String, List<Integer>>> fileData = new LinkedHashMap<>();
+        read(fileName, (keys, values, size) ->
+                fileData.computeIfAbsent(keys[0], h -> new LinkedHashMap<>()).put(keys[1], Util.arrayToList(values, size)));
+        return fileData;
+    }
+
+    /* Streams the host -> disk -> partitions entries of a .part (YAML) or .json allocation file */
+    private static void read(String fileName, NestedListReader.Handler handler) throws IOException {
+        NestedListReader.read(fileName, 2, handler);
     }
 
 
     public void convertTo(Allocation newAllocation) {
+        getChanges(newAllocation).forEach(System.out::println);
+    }
+
+    /* Disks added or deleted, and partitions moved in or out of each disk, to go to NEWALLOCATION */
+    public List<String> getChanges(Allocation newAllocation) {
+        List<String> changes = new ArrayList<>();
 
         Map<Disk, List<Integer>> oldDiskToPartitionMap = getDiskToPartitionListMap();
         Map<Disk, List<Integer>> newDiskToPartitionMap = newAllocation.getDiskToPartitionListMap();
@@ -160,12 +293,12 @@ public class Allocation {
             List<Integer> newDiskList = newDiskToPartitionMap.getOrDefault(disk, null);
 
             if(oldDiskList == null) {
-                System.out.println("Add " + disk + " : " + Util.sequenceNum(newDiskList));
+                changes.add("Add " + disk + " : " + Util.sequenceNum(newDiskList));
                 continue;
             }
 
             if(newDiskList == null) {
-                System.out.println("Del " + disk + " : " + Util.sequenceNum(oldDiskList));
+                changes.add("Del " + disk + " : " + Util.sequenceNum(oldDiskList));
                 continue;
             }
 
@@ -173,14 +306,20 @@ public class Allocation {
             List<Integer> movedIn = newDiskList.stream().filter(p -> !oldDiskList.contains(p)).collect(Collectors.toList());
 
             if(!movedAway.isEmpty())
-                System.out.println("Mv out " + disk + " : " + Util.sequenceNum(movedAway));
+                changes.add("Mv out " + disk + " : " + Util.sequenceNum(movedAway));
 
             if(!movedIn.isEmpty())
-            System.out.println("Mv in " + disk + " : " + Util.sequenceNum(movedIn));
+                changes.add("Mv in " + disk + " : " + Util.sequenceNum(movedIn));
         }
+        return changes;
     }
 
     public void writeToFile(String fileName) {
+        if(fileName.endsWith(AllocationSnapshot.EXTENSION)) {
+            AllocationSnapshot.write(this, fileName);
+            return;
+        }
+
         DumperOptions options = new DumperOptions();
         options.setDefaultFlowStyle(DumperOptions.FlowStyle.FLOW);
         options.setSplitLines(false);
@@ -0,0 +1,198 @@
+package allocator;
+
+import topology.*;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Partition indexes of every level of the zone (disk, host, chassis and rack) built in a single pass over the
+ * locations of an allocation.
+ *
+ * The indexes are read-only: use the to*Map methods to get mutable copies.
+ */
+public class AllocationIndex {
+
+    final Allocation allocation;
+    final Zone zone;
+
+    // Partitions in the order they first appear in the zone
+    final int[] partitionOrder;
+
+    public final Level<Rack> rack;
+    public final Level<Chassis> chassis;
+    public final Level<Host> host;
+    public final Level<Disk> disk;
+
+    public class Level<T extends AllocationUnit> {
+        final List<T> unitList;
+        final Function<Location, T> locationToUnit;
+
+        // CSR from unit globalIndex to the partitions of its locations, in zone order
+        final int[] unitPartitionStart;
+        final int[] unitPartitions;
+        final int[] unitDistinctPartitionCount;
+        // Unit globalIndex of each location of allocation.partitionLocations
+        final int[] partitionUnits;
+
+        Level(List<T> unitList, Function<Location, T> locationToUnit) {
+            this.unitList = unitList;
+            this.locationToUnit = locationToUnit;
+
+            unitPartitionStart = new int[unitList.size() + 1];
+            unitPartitions = new int[allocation.allocatedLocationCount];
+            unitDistinctPartitionCount = new int[unitList.size()];
+            partitionUnits = new int[allocation.allocatedLocationCount];
+        }
+
+        public int getPartitionCount(T unit) {
+            return unitPartitionStart[unit.globalIndex + 1] - unitPartitionStart[unit.globalIndex];
+        }
+
+        public int getPartition(T unit, int i) {
+            return unitPartitions[unitPartitionStart[unit.globalIndex] + i];
+        }
+
+        /* Number of units holding at least one partition */
+        public int getHoldingUnitCount() {
+            int count = 0;
+            for (int u = 0; u < unitList.size(); u++) {
+                if (unitPartitionStart[u + 1] > unitPartitionStart[u]) count++;
+            }
+            return count;
+        }
+
+        public int getDistinctPartitionCount(T unit) {
+            return unitDistinctPartitionCount[unit.globalIndex];
+        }
+
+        public int getUnitCount(int partition) {
+            return allocation.getReplicaCount(partition);
+        }
+
+        public T getUnit(int partition, int i) {
+            int p = partition - allocation.firstPartition;
+            return unitList.get(partitionUnits[allocation.partitionLocationStart[p] + i]);
+        }
+
+        /* Units in zone order, each with the partitions of its locations */
+        public Map<T, List<Integer>> toUnitToPartitionListMap() {
+            Map<T, List<Integer>> m = new LinkedHashMap<>();
+            for (T unit: unitList) {
+                int count = getPartitionCount(unit);
+                if (count == 0) continue;
+
+                List<Integer> partitionList = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    partitionList.add(getPartition(unit, i));
+                }
+                m.put(unit, partitionList);
+            }
+            return m;
+        }
+
+        /* Partitions in the order they first appear in the zone, each with the units of its locations */
+        public Map<Integer, List<T>> toPartitionToUnitListMap() {
+            Map<Integer, List<T>> m = new LinkedHashMap<>();
+            for (int partition: partitionOrder) {
+                int count = getUnitCount(partition);
+                List<T> unitList = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    unitList.add(getUnit(partition, i));
+                }
+                m.put(partition, unitList);
+            }
+            return m;
+        }
+
+        private void count(Location location) {
+            unitPartitionStart[locationToUnit.apply(location).globalIndex + 1]++;
+        }
+
+        private int[] prefixSum() {
+            for (int u = 0; u < unitList.size(); u++) {
+                unitPartitionStart[u + 1] += unitPartitionStart[u];
+            }
+            return Arrays.copyOf(unitPartitionStart, unitList.size());
+        }
+
+        private void fill(int[] next, Location location, int partition) {
+            unitPartitions[next[locationToUnit.apply(location).globalIndex]++] = partition;
+        }
+
+        private void fillPartitionUnits(int i, Location location) {
+            partitionUnits[i] = locationToUnit.apply(location).globalIndex;
+        }
+
+        private void countDistinct(BitSet seen) {
+            for (int u = 0; u < unitList.size(); u++) {
+                for (int i = unitPartitionStart[u]; i < unitPartitionStart[u + 1]; i++) {
+                    int p = unitPartitions[i] - allocation.firstPartition;
+                    if (!seen.get(p)) {
+                        seen.set(p);
+                        unitDistinctPartitionCount[u]++;
+                    }
+                }
+                seen.clear();
+            }
+        }
+    }
+
+    public AllocationIndex(Allocation allocation) {
+        this.allocation = allocation;
+        this.zone = allocation.zone;
+
+        rack = new Level<>(zone.rackList, location -> location.rack);
+        chassis = new Level<>(zone.chassisList, location -> location.chassis);
+        host = new Level<>(zone.hostList, location -> location.host);
+        disk = new Level<>(zone.diskList, location -> location.disk);
+        List<Level<?>> levels = Arrays.asList(rack, chassis, host, disk);
+
+        BitSet seen = new BitSet();
+        int[] order = new int[allocation.partitionLocationStart.length - 1];
+        int nbPartitions = 0;
+        for (Location location: zone.locationList) {
+            int partition = allocation.locationToPartition[location.globalIndex];
+            if (partition == Allocation.UNALLOCATED) continue;
+
+            for (Level<?> level: levels) {
+                level.count(location);
+            }
+            if (!seen.get(partition - allocation.firstPartition)) {
+                seen.set(partition - allocation.firstPartition);
+                order[nbPartitions++] = partition;
+            }
+        }
+        partitionOrder = Arrays.copyOf(order, nbPartitions);
+        seen.clear();
+
+        int[][] next = new int[levels.size()][];
+        for (int l = 0; l < levels.size(); l++) {
+            next[l] = levels.get(l).prefixSum();
+        }
+
+        for (Location location: zone.locationList) {
+            int partition = allocation.locationToPartition[location.globalIndex];
+            if (partition == Allocation.UNALLOCATED) continue;
+
+            for (int l = 0; l < levels.size(); l++) {
+                levels.get(l).fill(next[l], location, partition);
+            }
+        }
+
+        for (int i = 0; i < allocation.partitionLocations.length; i++) {
+            Location location = zone.locationList.get(allocation.partitionLocations[i]);
+            for (Level<?> level: levels) {
+                level.fillPartitionUnits(i, location);
+            }
+        }
+
+        for (Level<?> level: levels) {
+            level.countDistinct(seen);
+        }
+    }
+
+    public int[] getPartitionOrder() {
+        return partitionOrder.clone();
+    }
+}
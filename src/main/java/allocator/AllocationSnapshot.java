@@ -0,0 +1,130 @@
+package allocator;
+
+import topology.Disk;
+import topology.Location;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binary snapshot of an allocation, read through a memory mapped buffer.
+ *
+ * Layout (big endian ints):
+ *   MAGIC, VERSION, number of disks D, number of slots S
+ *   D partition counts, one per disk
+ *   S partitions, the partitions of each disk one after the other
+ *   D disk names, each one as its byte length followed by its UTF-8 bytes
+ */
+public class AllocationSnapshot {
+
+    public static final String EXTENSION = ".snap";
+
+    static final int MAGIC = 0x50414c43; // "PALC"
+    static final int VERSION = 1;
+    static final int HEADER_INTS = 4;
+
+    public static void write(Allocation allocation, String fileName) {
+        int nbDisks = allocation.zone.diskList.size();
+        byte[][] names = new byte[nbDisks][];
+        int[] counts = new int[nbDisks];
+        int nbSlots = 0;
+        int namesSize = 0;
+        for (Disk disk: allocation.zone.diskList) {
+            names[disk.globalIndex] = disk.name.getBytes(StandardCharsets.UTF_8);
+            namesSize += Integer.BYTES + names[disk.globalIndex].length;
+            for (Location location: disk.locationList) {
+                if (allocation.getPartition(location) != Allocation.UNALLOCATED) counts[disk.globalIndex]++;
+            }
+            nbSlots += counts[disk.globalIndex];
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((HEADER_INTS + nbDisks + nbSlots) * Integer.BYTES + namesSize);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(nbDisks).putInt(nbSlots);
+        for (int count: counts) {
+            buffer.putInt(count);
+        }
+        for (Disk disk: allocation.zone.diskList) {
+            for (Location location: disk.locationList) {
+                int partition = allocation.getPartition(location);
+                if (partition != Allocation.UNALLOCATED) buffer.putInt(partition);
+            }
+        }
+        for (byte[] name: names) {
+            buffer.putInt(name.length).put(name);
+        }
+        buffer.flip();
+
+        System.out.println("Writing snapshot to file: " + fileName);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* Returns the partitions of each disk keyed by disk name, in the order of the snapshot. Fails on a file which is
+       not a complete snapshot */
+    public static Map<String, int[]> read(String fileName) throws IOException {
+        Map<String, int[]> diskNameToPartitionsMap = new LinkedHashMap<>();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_INTS * Integer.BYTES) {
+                throw new IOException(fileName + " is too short for an allocation snapshot");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(fileName + " is not an allocation snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + fileName);
+            }
+            int nbDisks = buffer.getInt();
+            int nbSlots = buffer.getInt();
+            if (nbDisks < 0 || nbSlots < 0 || (HEADER_INTS + (long) nbDisks + nbSlots) * Integer.BYTES > size) {
+                throw new IOException("Invalid snapshot header in " + fileName + ": " + nbDisks + " disks, " + nbSlots + " slots");
+            }
+
+            IntBuffer ints = buffer.asIntBuffer();
+            int[] counts = new int[nbDisks];
+            ints.get(counts);
+            long nbCounted = 0;
+            for (int count: counts) {
+                if (count < 0) throw new IOException("Negative partition count in " + fileName);
+                nbCounted += count;
+            }
+            if (nbCounted != nbSlots) {
+                throw new IOException("Partition counts of " + fileName + " do not add up to its " + nbSlots + " slots");
+            }
+
+            buffer.position(buffer.position() + (nbDisks + nbSlots) * Integer.BYTES);
+            for (int d = 0; d < nbDisks; d++) {
+                int length = buffer.remaining() < Integer.BYTES ? -1 : buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Truncated disk name in " + fileName);
+                }
+                byte[] name = new byte[length];
+                buffer.get(name);
+
+                int[] partitions = new int[counts[d]];
+                ints.get(partitions);
+                diskNameToPartitionsMap.put(new String(name, StandardCharsets.UTF_8), partitions);
+            }
+        }
+
+        return diskNameToPartitionsMap;
+    }
+}
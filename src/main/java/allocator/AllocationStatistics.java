@@ -0,0 +1,195 @@
+package allocator;
+
+import topology.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Statistics of an allocation: replicas of each partition, and for each level the intersections between units
+ * and their cardinality.
+ *
+ * The levels and the intersections over chunks of partitions are computed in parallel on a ForkJoinPool.
+ * Use print() to output them.
+ */
+public class AllocationStatistics {
+
+    // Partitions per fork-join task when computing intersections
+    static final int MIN_CHUNK_SIZE = 1024;
+
+    public final Zone zone;
+
+    public final Map<Disk, Integer> diskPartitionCount;
+    public final Map<Integer, Integer> partitionReplicas;
+    public final Map<Integer, List<Disk>> unSatisfiedReplicas;
+    public final Set<Disk> unSatisfyingLocations;
+
+    public final LevelStatistics<Disk> disk;
+    public final LevelStatistics<Host> host;
+    public final LevelStatistics<Chassis> chassis;
+    public final LevelStatistics<Rack> rack;
+
+    public static class LevelStatistics<T extends AllocationUnit> {
+        final String name;
+        final String cardinalityName;
+        final boolean printIntersectionSizes;
+        final ToIntFunction<T> capacity;
+
+        public IntersectionStatistics<T> triples;
+        public IntersectionStatistics<T> pairs;
+        // Distinct partitions of each unit holding partitions, in zone order
+        public Map<T, Long> cardinality;
+
+        IntersectionTask<T> triplesTask;
+        IntersectionTask<T> pairsTask;
+
+        LevelStatistics(String name, String cardinalityName, boolean printIntersectionSizes, ToIntFunction<T> capacity) {
+            this.name = name;
+            this.cardinalityName = cardinalityName;
+            this.printIntersectionSizes = printIntersectionSizes;
+            this.capacity = capacity;
+        }
+
+        public Map<String, String> getUnSatisfiedCardinality() {
+            return cardinality.entrySet().stream()
+                    .filter(e -> capacity.applyAsInt(e.getKey()) != e.getValue())
+                    .map(e -> Map.entry(e.getKey().name, e.getValue() + "/" + capacity.applyAsInt(e.getKey())))
+                    .collect(Util.toMap());
+        }
+
+        public long getCardinalitySum() {
+            return cardinality.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        List<ForkJoinTask<?>> tasks(AllocationIndex.Level<T> level, int[] partitionOrder, int chunkSize) {
+            triplesTask = new IntersectionTask<>(level, partitionOrder, 0, partitionOrder.length, 3, chunkSize);
+            pairsTask = new IntersectionTask<>(level, partitionOrder, 0, partitionOrder.length, 2, chunkSize);
+            ForkJoinTask<?> cardinalityTask = ForkJoinTask.adapt(() -> {
+                Map<T, Long> m = new LinkedHashMap<>();
+                for (T unit: level.unitList) {
+                    if (level.getPartitionCount(unit) > 0) m.put(unit, (long) level.getDistinctPartitionCount(unit));
+                }
+                cardinality = m;
+            });
+            return Arrays.asList(triplesTask, pairsTask, cardinalityTask);
+        }
+
+        void collect() {
+            triples = triplesTask.join();
+            pairs = pairsTask.join();
+        }
+
+        void print() {
+            System.out.println("For " + name + ": ");
+            Allocator.printCombinationStatistics(triples, printIntersectionSizes);
+            Allocator.printCombinationStatistics(pairs, false);
+
+            System.out.println("Unsatisfied " + name + " " + cardinalityName + ": " + getUnSatisfiedCardinality());
+            System.out.println(Character.toUpperCase(name.charAt(0)) + name.substring(1) + " card sum: " + getCardinalitySum());
+        }
+    }
+
+    /* Intersections of the partitions partitionOrder[from] .. partitionOrder[to - 1], split in chunks */
+    static class IntersectionTask<T extends AllocationUnit> extends RecursiveTask<IntersectionStatistics<T>> {
+        private static final long serialVersionUID = 1L;
+
+        final AllocationIndex.Level<T> level;
+        final int[] partitionOrder;
+        final int from;
+        final int to;
+        final int k;
+        final int chunkSize;
+
+        IntersectionTask(AllocationIndex.Level<T> level, int[] partitionOrder, int from, int to, int k, int chunkSize) {
+            this.level = level;
+            this.partitionOrder = partitionOrder;
+            this.from = from;
+            this.to = to;
+            this.k = k;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected IntersectionStatistics<T> compute() {
+            if (to - from <= chunkSize) {
+                return IntersectionStatistics.of(level, partitionOrder, from, to, k);
+            }
+            int middle = (from + to) >>> 1;
+            IntersectionTask<T> left = new IntersectionTask<>(level, partitionOrder, from, middle, k, chunkSize);
+            IntersectionTask<T> right = new IntersectionTask<>(level, partitionOrder, middle, to, k, chunkSize);
+            left.fork();
+            return right.compute().merge(left.join());
+        }
+    }
+
+    public AllocationStatistics(Allocation allocation) {
+        this(allocation, ForkJoinPool.commonPool());
+    }
+
+    public AllocationStatistics(Allocation allocation, ForkJoinPool pool) {
+        this.zone = allocation.zone;
+
+        AllocationIndex index = allocation.getIndex();
+        int[] partitionOrder = index.getPartitionOrder();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, partitionOrder.length / (4 * pool.getParallelism()));
+
+        disk = new LevelStatistics<>("disk", "Cardinality", false, d -> d.capacity);
+        host = new LevelStatistics<>("host", "Cardinality", false, h -> h.capacity);
+        chassis = new LevelStatistics<>("chassis", "cardinality", true, c -> c.capacity);
+        rack = new LevelStatistics<>("rack", "cardinality", true, r -> r.capacity);
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        tasks.addAll(disk.tasks(index.disk, partitionOrder, chunkSize));
+        tasks.addAll(host.tasks(index.host, partitionOrder, chunkSize));
+        tasks.addAll(chassis.tasks(index.chassis, partitionOrder, chunkSize));
+        tasks.addAll(rack.tasks(index.rack, partitionOrder, chunkSize));
+        tasks.forEach(pool::execute);
+
+        diskPartitionCount = new HashMap<>();
+        for (Disk d: zone.diskList) {
+            if (index.disk.getPartitionCount(d) > 0) diskPartitionCount.put(d, index.disk.getPartitionCount(d));
+        }
+
+        partitionReplicas = new LinkedHashMap<>();
+        unSatisfiedReplicas = new LinkedHashMap<>();
+        for (int partition: partitionOrder) {
+            int replicas = index.disk.getUnitCount(partition);
+            partitionReplicas.put(partition, replicas);
+            if (replicas != Context.REPLICATION_FACTOR) {
+                List<Disk> diskList = new ArrayList<>(replicas);
+                for (int i = 0; i < replicas; i++) {
+                    diskList.add(index.disk.getUnit(partition, i));
+                }
+                unSatisfiedReplicas.put(partition, diskList);
+            }
+        }
+        unSatisfyingLocations = unSatisfiedReplicas.values().stream()
+                .flatMap(k -> k.stream())
+                .sorted()
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        tasks.forEach(ForkJoinTask::join);
+        disk.collect();
+        host.collect();
+        chassis.collect();
+        rack.collect();
+    }
+
+    public void print() {
+        System.out.println("Disk: " + diskPartitionCount);
+        System.out.println("Partition replicas: " + partitionReplicas);
+        System.out.println("Unsatisfied replicas: " + unSatisfiedReplicas.keySet());
+        System.out.println("Unsatisfied Locations:" + unSatisfyingLocations);
+
+        disk.print();
+        host.print();
+        chassis.print();
+        rack.print();
+
+        System.out.println("Total partition capacity: " + zone.capacity);
+    }
+}
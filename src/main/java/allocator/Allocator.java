@@ -8,9 +8,9 @@ import org.chocosolver.memory.ICondition;
 import org.chocosolver.solver.*;
 import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.search.limits.FailCounter;
 import org.chocosolver.solver.search.loop.monitors.*;
 import org.chocosolver.solver.search.strategy.Search;
-import org.chocosolver.solver.search.strategy.selectors.values.SetDomainMin;
 import org.chocosolver.solver.search.strategy.selectors.values.SetValueSelector;
 import org.chocosolver.solver.search.strategy.selectors.variables.VariableSelector;
 import org.chocosolver.solver.search.strategy.strategy.SetStrategy;
@@ -18,12 +18,13 @@ import org.chocosolver.solver.trace.IMessage;
 import org.chocosolver.solver.variables.IntVar;
 import org.chocosolver.solver.variables.SetVar;
 import org.chocosolver.solver.variables.Variable;
+import org.chocosolver.solver.variables.impl.SetVarImpl;
 import org.chocosolver.util.criteria.Criterion;
+import org.chocosolver.util.objects.setDataStructures.SetType;
 import org.testng.util.Strings;
 import topology.*;
 
 import java.io.Closeable;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -32,6 +33,10 @@ import java.util.stream.IntStream;
 public class Allocator {
 
     static final int[] EMPTY_VALUES = new int[0];
+    // Failures of a large neighbourhood search before relaxing another neighbourhood
+    static final int LNS_FAIL_LIMIT = 100;
+    // Neighbourhoods in a row failing to move fewer partitions before the moves are deemed minimal
+    static final int MOVES_NEIGHBOURHOODS = 64;
 
     final public Context context;
 
@@ -44,19 +49,37 @@ public class Allocator {
     final public List<SetVar> hostVarList;
     final public List<SetVar> diskVarList;
     final public IntVar objective;
+    // Weighted partitions moved from the existing allocation, null unless the context counts them
+    final public IntVar moves;
 
     final public Solution latestSolution;
 
-    static public List<Disk> frozenVars = new ArrayList<>();;
+    final public List<Disk> frozenVars;
+    final public SearchConfiguration configuration;
+    // Whether the kernels of the set variables are trailed range sets, see newSetVar()
+    final boolean trailedKernels;
 
     Allocation latestAllocation;
     int latestObjective;
     int overlap;
     int maxDisjointLevel;
 
-    boolean shouldStop = false;
+    volatile boolean shouldStop = false;
+    boolean solved = false;
+    // Failures allowed to the current call to solve(), counted from failCountOnSolve
+    long failLimit;
+    long failCountOnSolve = 0;
+    boolean failLimitReached = false;
+
+    /* FROZENVARS is updated by the initial propagation, it is kept by the caller from one model to the next */
+    public Allocator(Context context, Allocation latestAllocation, int latestObjective, int overlap, int maxDisjointLevel,
+                     List<Disk> frozenVars, SearchConfiguration configuration) {
+        this(context, latestAllocation, latestObjective, overlap, maxDisjointLevel, frozenVars, configuration, false);
+    }
 
-    public Allocator(Context context, Allocation latestAllocation, int latestObjective, int overlap, int maxDisjointLevel) {
+    /* As above, the set variables having trailed kernels if TRAILEDKERNELS, as needed by searchNeighbourhood() */
+    Allocator(Context context, Allocation latestAllocation, int latestObjective, int overlap, int maxDisjointLevel,
+              List<Disk> frozenVars, SearchConfiguration configuration, boolean trailedKernels) {
 
         this.context = context;
         Zone zone = context.zone;
@@ -66,6 +89,10 @@ public class Allocator {
         this.latestObjective = latestObjective;
         this.overlap = overlap;
         this.maxDisjointLevel = maxDisjointLevel;
+        this.frozenVars = frozenVars;
+        this.configuration = configuration;
+        this.trailedKernels = trailedKernels;
+        this.failLimit = configuration.getFailLimit();
 
         // Create model, variables and constraints
         this.partitions = IntStream.range(0, allocation.partitionList.size()).toArray();
@@ -95,12 +122,12 @@ public class Allocator {
         hostVarList = new ArrayList<>();
         diskVarList = new ArrayList<>();
 
-        zoneVar = model.setVar(zone.name, EMPTY_VALUES, partitions);
+        zoneVar = newSetVar(zone.name);
         IntVar zoneVarCapacity = zoneVar.getCard();
         model.arithm(zoneVarCapacity, "<=", zone.capacity).post();
 
         SetVar[] rackVars = zone.rackList.stream()
-                .map(r -> model.setVar(r.name, EMPTY_VALUES, partitions)).toArray(SetVar[]::new);
+                .map(r -> newSetVar(r.name)).toArray(SetVar[]::new);
         if(racksInZoneDisjoint) {
             model.partition(rackVars, zoneVar).post();
         } else {
@@ -113,7 +140,7 @@ public class Allocator {
             model.arithm(rackCapacityVar, "<=", rack.capacity).post();
 
             SetVar[] chassisVars = rack.chassisList.stream()
-                    .map(c -> model.setVar(c.name, EMPTY_VALUES, partitions)).toArray(SetVar[]::new);
+                    .map(c -> newSetVar(c.name)).toArray(SetVar[]::new);
             if (chassisInRackDisjoint) {
                 model.partition(chassisVars, rackVar).post();
             } else {
@@ -126,7 +153,7 @@ public class Allocator {
                 model.arithm(chassisCapacityVar, "<=", chassis.capacity).post();
 
                 SetVar[] hostVars = chassis.hostList.stream()
-                        .map(h -> model.setVar(h.name, EMPTY_VALUES, partitions)).toArray(SetVar[]::new);
+                        .map(h -> newSetVar(h.name)).toArray(SetVar[]::new);
                 if(hostsInChassisDisjoint) {
                     model.partition(hostVars, chassisVar).post();
                 } else {
@@ -138,8 +165,11 @@ public class Allocator {
                     IntVar hostCapacityVar = hostVar.getCard();
                     model.arithm(hostCapacityVar, "<=", host.capacity).post();
 
+                    // Disks out of a localized re-solve are constants holding their partitions
                     SetVar[] diskVars = host.diskList.stream()
-                            .map(d -> model.setVar(d.name, EMPTY_VALUES, partitions)).toArray(SetVar[]::new);
+                            .map(d -> context.isFree(d) ? newSetVar(d.name)
+                                    : model.setVar(d.name, context.allocation.getPartitions(d)))
+                            .toArray(SetVar[]::new);
                     if(disksInHostDisjoint) {
                         model.partition(diskVars, hostVar).post();
                     } else {
@@ -191,13 +221,16 @@ public class Allocator {
         IntVar[] diskVarCard = maxCardList.stream().map(v -> v.getCard()).toArray(IntVar[]::new);
         model.sum(diskVarCard, "=", objective).post();
 
+        moves = context.countsMoves() ? createMoves(diskVars) : null;
+
         Solver solver = model.getSolver();
-        // UnSatisfiedSetNeighbourhood myLNS = new UnSatisfiedSetNeighbourhood(diskVars, frozenVars);
-        // solver.setLNS(myLNS);
 
         // Add custom constraint to initialize allocation
         InitialProp.createConstraint(objective, diskVars, latestAllocation, maxDisjointLevel, frozenVars, context).post();
 
+        // Add custom constraint to count the replicas of each partition
+        ReplicaCount.createConstraint(diskVars, latestObjective, context).post();
+
         // Add custom constraint to minimize disk overlaps
         MinOverlap.createConstraint(diskVars, overlap, context).post();
 
@@ -208,14 +241,7 @@ public class Allocator {
 
         // Set Search strategy
         VariableSelector<SetVar> variableSelector = new FrozenVarInputOrder(model, frozenVars);
-        SetValueSelector valueSelector = new SetDomainMin() {
-            //@Override
-            //public int selectValue(SetVar s) {
-            //    int val = super.selectValue(s);
-            //    System.out.println("Selecting val: " + val + " for " + s.getName());
-            //    return val;
-            //}
-        };
+        SetValueSelector valueSelector = configuration.getValueSelector(partitions);
         SetVar[] diskVarsOrdered =  zone.diskList.stream()
                         .collect(Collectors.groupingBy(d -> d.index,
                                 Collectors.groupingBy(d -> d.host.index,
@@ -232,9 +258,10 @@ public class Allocator {
         SetStrategy setStrategy = Search.setVarSearch(
                 variableSelector,
                 valueSelector,
-                true, diskVarsOrdered);
+                true, configuration.getVariables(diskVarsOrdered, diskVarList));
 
         solver.setSearch(setStrategy);
+        configuration.configureRestarts(model);
 
         // Set LNS on the latest solution;
         Variable[] variablesToRecord = new Variable[diskVarList.size()+1];
@@ -247,10 +274,65 @@ public class Allocator {
 
     }
 
-    public void outputSearchTree(int iteration) {
+    /* Sum of the partitions each disk holds but did not hold in the existing allocation, weighted by disk, and at most
+       the cap of the context. A disk keeping the partitions of the existing allocation moves nothing */
+    private IntVar createMoves(SetVar[] diskVars) {
+        List<IntVar> cardList = new ArrayList<>();
+        List<Integer> weightList = new ArrayList<>();
+        int maxMoves = 0;
+        for (Disk disk: context.zone.diskList) {
+            if (!context.isFree(disk)) continue;
+            SetVar diskVar = diskVars[disk.globalIndex];
+            int weight = context.getMoveWeight(disk);
+            int[] existing = context.allocation.getPartitions(disk);
+            cardList.add(diskVar.getCard());
+            weightList.add(weight);
+            if (existing.length > 0) {
+                SetVar keptVar = newSetVar(disk.name + "-kept");
+                model.intersection(new SetVar[]{diskVar, model.setVar(disk.name + "-existing", existing)}, keptVar).post();
+                cardList.add(keptVar.getCard());
+                weightList.add(-weight);
+            }
+            maxMoves += weight * disk.capacity;
+        }
+        IntVar moves = model.intVar("Moves", 0, context.maxMoves < 0 ? maxMoves : Math.min(maxMoves, context.maxMoves));
+        model.scalar(cardList.toArray(IntVar[]::new), weightList.stream().mapToInt(w -> w).toArray(), "=", moves).post();
+        return moves;
+    }
+
+    /* Lower bound of the moves of an allocation of objective OBJECTIVE: the replicas the existing allocation misses,
+       each moved onto a disk of the lowest weight */
+    static int minMoves(Context context, int objective) {
+        int missingReplicas = Math.max(0, objective - context.allocation.allocatedLocationCount);
+        int minWeight = context.zone.diskList.stream().mapToInt(context::getMoveWeight).min().orElse(0);
+        return missingReplicas * minWeight;
+    }
+
+    /* Weighted partitions ALLOCATION moved from the existing allocation of CONTEXT */
+    static int countMoves(Context context, Allocation allocation) {
+        int moves = 0;
+        for (Disk disk: context.zone.diskList) {
+            Set<Integer> existing = Arrays.stream(context.allocation.getPartitions(disk)).boxed().collect(Collectors.toSet());
+            long moved = Arrays.stream(allocation.getPartitions(disk)).filter(p -> !existing.contains(p)).count();
+            moves += context.getMoveWeight(disk) * moved;
+        }
+        return moves;
+    }
+
+    /* Set variable ranging over the partitions. With trailed kernels, its kernel grows in a range set rather than the
+       default bitset, which may bring back values forced below the current world when it grows again after a
+       backtrack. Only the neighbourhood searches hit this, the range set slowing down the other models */
+    private SetVar newSetVar(String name) {
+        if (!trailedKernels) {
+            return model.setVar(name, EMPTY_VALUES, partitions);
+        }
+        return new SetVarImpl(name, EMPTY_VALUES, SetType.RANGESET, partitions, SetType.BITSET, model);
+    }
+
+    public void outputSearchTree(String iteration) {
         Solver solver = model.getSolver();
 
-        Closeable closeable = new GraphvizGenerator(context.zone.name + "-" + iteration + "-search-tree.gv", solver);
+        Closeable closeable = new GraphvizGenerator(context.zone.name + "-" + iteration + configuration.getFileSuffix() + "-search-tree.gv", solver);
 
         solver.plugMonitor(new IMonitorClose() {
             @Override
@@ -277,21 +359,71 @@ public class Allocator {
         VariableMonitor.logOnUpdate(diskVarList);
     }
 
+    /* Each call to solve() continues the search from the last solution, only accepting a better objective.
+       The objective is branched on last, since the disks may leave it uninstantiated on a solution */
+    public void tightenObjectiveOnSolution() {
+        model.setObjective(Model.MAXIMIZE, objective);
+        Solver solver = model.getSolver();
+        solver.setSearch(solver.getSearch(), Search.inputOrderUBSearch(objective));
+    }
+
+    /* Searches the neighbourhood of the disks RELAXED, the others keeping the partitions of VALUES, failing after
+       LNS_FAIL_LIMIT failures or past DEADLINE (System.nanoTime()) */
+    public void searchNeighbourhood(Set<Disk> relaxed, int[][] values, long deadline) {
+        NeighbourhoodProp.createConstraint(diskVarList.toArray(SetVar[]::new), context.zone, relaxed, values).post();
+        Solver solver = model.getSolver();
+        solver.addStopCriterion(new FailCounter(model, LNS_FAIL_LIMIT));
+        solver.addStopCriterion(() -> System.nanoTime() >= deadline);
+    }
+
+    /* Each call to solve() finds fewer moves than MAXMOVES, then than the latest solution, trying the existing
+       partitions of a disk first */
+    public void minimizeMovesOnSolution(int maxMoves) {
+        model.arithm(moves, "<", maxMoves).post();
+        model.setObjective(Model.MINIMIZE, moves);
+        Map<SetVar, int[]> existing = context.zone.diskList.stream()
+                .collect(Collectors.toMap(d -> diskVarList.get(d.globalIndex), d -> context.allocation.getPartitions(d)));
+        Solver solver = model.getSolver();
+        solver.setSearch(Search.setVarSearch(new FrozenVarInputOrder(model, frozenVars), new SetDomainExistingFirst(existing),
+                true, diskVarList.toArray(SetVar[]::new)), Search.inputOrderLBSearch(moves));
+    }
+
+    public boolean solve() {
+        return solve(configuration.getFailLimit());
+    }
+
+    /* As solve(), stopping after FAILLIMIT more failures. A kept model continuing from its latest solution fails
+       right away on the tightened objective, so it gets a larger budget than the first failure */
+    public boolean solve(long failLimit) {
+        this.failLimit = failLimit;
+        failCountOnSolve = model.getSolver().getFailCount();
+        failLimitReached = false;
+        solved = model.getSolver().solve();
+        return solved;
+    }
+
     public void setStopCriterion() {
         Solver solver = model.getSolver();
         solver.addStopCriterion(new Criterion() {
             @Override
             public boolean isMet() {
-                if(shouldStop){
+                if(shouldStop || failLimitReached){
                     System.out.println("Stop criterion met");
                 }
-                return shouldStop;
+                return shouldStop || failLimitReached;
             }
         });
 
         model.getSolver().plugMonitor(new IMonitorContradiction() {
             @Override
             public void onContradiction(ContradictionException cex) {
+                if(model.getSolver().getFailCount() - failCountOnSolve >= failLimit) {
+                    failLimitReached = true;
+                }
+                // Only the first contradiction is detailed, restarting searches fail many times
+                if(model.getSolver().getFailCount() > 1) {
+                    return;
+                }
                 cex.printStackTrace(System.out);
                 System.out.println(cex.v + ":"+cex.c + cex.getMessage());
 
@@ -300,21 +432,178 @@ public class Allocator {
                 Map<Disk, Set<Integer>> disks = context.zone.rackList.get(0).chassisList.get(1).diskList.stream()
                                     .collect(Collectors.toMap(d -> d, d -> Util.isetToSet(diskVarList.get(d.globalIndex).getLB())));
                 printCombinationStatistics(disks);
+            }
+        });
+    }
+
+    static Allocator createAllocator(Context context, Allocation latestAllocation, int latestObjective, int overlap,
+                                     int maxDisjointLevel, List<Disk> frozenVars, SearchConfiguration configuration, String iteration) {
+        Allocator allocator = new Allocator(context, latestAllocation, latestObjective, overlap, maxDisjointLevel, frozenVars, configuration);
+
+        // Options for debugging
+        // allocator.logEveryDecision();
+        // allocator.outputOnEveryUpdate();
+        allocator.outputSearchTree(iteration);
+        allocator.setStopCriterion();
+        if (context.symmetryBreaking) {
+            SymmetryBreaking.post(allocator);
+        }
+        if (context.incremental) {
+            allocator.tightenObjectiveOnSolution();
+        }
+        return allocator;
+    }
+
+    /* Keeps improving LATESTALLOCATION, of objective LATESTOBJECTIVE, by a large neighbourhood search until the time
+       limit of the context, each neighbourhood being searched by a new model. Returns the best allocation found */
+    static Allocation improveWithLns(Context context, Allocation latestAllocation, int latestObjective, int overlap,
+                                     int maxDisjointLevel, List<Integer> objectiveList) {
+        Zone zone = context.zone;
+        Allocation emptyAllocation = new Allocation(zone, new LinkedHashMap<>());
+        SearchConfiguration configuration = context.searchConfigurations.get(0);
+        FailureDomainNeighbourhood neighbourhood = new FailureDomainNeighbourhood(latestAllocation, configuration.seed);
+        long start = System.nanoTime();
+        long deadline = start + context.lnsTimeLimit * 1_000_000;
+
+        // No neighbourhood can do better when the objective bound alone fails the root propagation
+        try {
+            new Allocator(context, emptyAllocation, latestObjective + 1, overlap, maxDisjointLevel, new ArrayList<>(),
+                    configuration).model.getSolver().propagate();
+        } catch (ContradictionException e) {
+            System.out.println("LNS cannot improve on " + latestObjective + " with disk overlap: " + overlap
+                    + " and disjoint on level: " + maxDisjointLevel);
+            return latestAllocation;
+        }
 
-                if(model.getSolver().getFailCount() >= 1) {
-                    shouldStop = true;
+        while (latestObjective < zone.capacity && System.nanoTime() < deadline) {
+            Set<Disk> relaxed = neighbourhood.next();
+            Allocator allocator = new Allocator(context, emptyAllocation, latestObjective + 1, overlap, maxDisjointLevel,
+                    new ArrayList<>(), configuration, true);
+            allocator.searchNeighbourhood(relaxed, neighbourhood.values, deadline);
+            if (!allocator.solve()) continue;
+
+            latestObjective = allocator.latestSolution.getIntVal(allocator.objective);
+            objectiveList.add(latestObjective);
+            latestAllocation = new Allocation(zone, allocator.diskVarList);
+            neighbourhood.accept(latestAllocation);
+            writeAllocation(context, latestAllocation);
+            System.out.println("LNS solution: " + latestObjective + " relaxing " + relaxed.size() + " disks after "
+                    + (System.nanoTime() - start) / 1_000_000 + "ms");
+        }
+        System.out.println("LNS neighbourhoods: " + neighbourhood.getStatistics());
+        return latestAllocation;
+    }
+
+    /* Second, lexicographic objective: among the allocations of objective at least OBJECTIVE, minimizes the partitions
+       moved from the existing allocation by searching neighbourhoods of LATESTALLOCATION, until MOVES_NEIGHBOURHOODS
+       of them in a row move no fewer, the lower bound of the moves or the time limit of the large neighbourhood search.
+       The search starts from the greedy repair of the existing allocation instead when it reaches OBJECTIVE with fewer
+       moves. Returns the best allocation */
+    static Allocation minimizeMoves(Context context, Allocation latestAllocation, int objective, int overlap,
+                                    int maxDisjointLevel) {
+        Zone zone = context.zone;
+        Allocation emptyAllocation = new Allocation(zone, new LinkedHashMap<>());
+        SearchConfiguration configuration = context.searchConfigurations.get(0);
+        long deadline = context.lnsTimeLimit > 0 ? System.nanoTime() + context.lnsTimeLimit * 1_000_000 : Long.MAX_VALUE;
+        int latestMoves = countMoves(context, latestAllocation);
+        int minMoves = minMoves(context, objective);
+        System.out.println("Moves: " + latestMoves + ", at least " + minMoves);
+
+        // The models climbing the objective move most partitions anew, the repair keeps every existing replica
+        if (!context.allocation.isEmpty()) {
+            GreedyRepair repair = new GreedyRepair(context, overlap, maxDisjointLevel);
+            if (repair.isKeptAllocationValid() && repair.solve()
+                    && repair.repairedAllocation.allocatedLocationCount >= objective) {
+                int repairMoves = countMoves(context, repair.repairedAllocation);
+                if (repairMoves < latestMoves) {
+                    latestAllocation = repair.repairedAllocation;
+                    latestMoves = repairMoves;
+                    writeAllocation(context, latestAllocation);
+                    System.out.println("Moves: " + latestMoves + " from the greedy repair");
                 }
             }
-        });
+        }
+
+        FailureDomainNeighbourhood neighbourhood = new FailureDomainNeighbourhood(latestAllocation, configuration.seed);
+        for (int stalled = 0; latestMoves > minMoves && stalled < MOVES_NEIGHBOURHOODS && System.nanoTime() < deadline; stalled++) {
+            Set<Disk> relaxed = neighbourhood.next();
+            Allocator allocator = new Allocator(context, emptyAllocation, objective, overlap, maxDisjointLevel,
+                    new ArrayList<>(), configuration, true);
+            allocator.searchNeighbourhood(relaxed, neighbourhood.values, deadline);
+            allocator.minimizeMovesOnSolution(latestMoves);
+            if (!allocator.solve()) continue;
+
+            // The model keeps improving its neighbourhood, the last solution moving the fewest
+            do {
+                latestAllocation = new Allocation(zone, allocator.diskVarList);
+            } while (allocator.solve());
+            latestMoves = countMoves(context, latestAllocation);
+            neighbourhood.accept(latestAllocation);
+            writeAllocation(context, latestAllocation);
+            System.out.println("Moves: " + latestMoves + " relaxing " + relaxed.size() + " disks");
+            stalled = -1;
+        }
+        System.out.println("Move neighbourhoods: " + neighbourhood.getStatistics());
+        return latestAllocation;
     }
 
-    public static void main(String[] args) throws ParseException, FileNotFoundException {
+    /* Next lower bound of the objective, half way between a reached objective and a failed one */
+    static int bisect(int feasibleObjective, int infeasibleObjective) {
+        return Math.max(feasibleObjective + 1, feasibleObjective + (infeasibleObjective - feasibleObjective) / 2);
+    }
+
+    /* Outcome of run(), the overlap and disjoint level being the ones of the latest allocation found */
+    public static class Result {
+        public final String zoneName;
+        public final int capacity;
+        public final List<Integer> objectiveList;
+        public final int overlap;
+        public final int maxDisjointLevel;
+        public final int nbSolves;
+        // Null when no allocation was found
+        public final Allocation latestAllocation;
+
+        Result(String zoneName, int capacity, List<Integer> objectiveList, int overlap, int maxDisjointLevel, int nbSolves, Allocation latestAllocation) {
+            this.zoneName = zoneName;
+            this.capacity = capacity;
+            this.objectiveList = objectiveList;
+            this.overlap = overlap;
+            this.maxDisjointLevel = maxDisjointLevel;
+            this.nbSolves = nbSolves;
+            this.latestAllocation = latestAllocation;
+        }
+
+        public boolean isSolved() {
+            return latestAllocation != null;
+        }
+
+        public int getObjective() {
+            return objectiveList.isEmpty() ? 0 : objectiveList.get(objectiveList.size() - 1);
+        }
+    }
+
+    public static void main(String[] args) throws ParseException, IOException {
         // Set commandline options
         Context context = new Context(args);
+        run(context);
+    }
+
+    /* Allocation a model on MAXDISJOINTLEVEL starts from: the warm start PLACEMENT on its own level until a solution is
+       found on it, LATESTALLOCATION otherwise */
+    static Allocation getStartAllocation(Allocation latestAllocation, boolean solvedOnLevel, RoundRobinPlacement placement,
+                                         int maxDisjointLevel) {
+        if (placement != null && !solvedOnLevel && placement.maxDisjointLevel == maxDisjointLevel) {
+            return placement.repairedAllocation;
+        }
+        return latestAllocation;
+    }
+
+    /* Searches better allocations for the zone of CONTEXT, each one being written to the output files */
+    public static Result run(Context context) {
         Zone zone = context.zone;
 
         /*
-        if(!allocation.locationToPartitionMap.isEmpty()) {
+        if(!allocation.isEmpty()) {
             System.out.println("Loading existing allocation");
             Map<Disk, Integer> usedDiskCapacity = Util.deepCopy(allocation.data).entrySet().stream()
                     .map(Util.mapMapEntry(s -> zone.getDiskFromName(s), l -> l.size()))
@@ -343,26 +632,78 @@ public class Allocator {
         int latestObjective = 0;
         int overlap = 2;
         int maxDisjointLevel = Rack.LEVEL;
+        int solutionOverlap = overlap;
+        int solutionDisjointLevel = maxDisjointLevel;
         boolean reLoadOnce = false;
 
 
-        Allocator allocator;
+        Allocator allocator = null;
+        boolean rebuild = true;
+        // Allocator already solved by the relaxation ladder, its solution to be used by the next iteration
+        Allocator relaxedAllocator = null;
+        List<Disk> frozenVars = new ArrayList<>();
+        Portfolio portfolio = new Portfolio(context.searchConfigurations);
 
-        for (int iteration = 0;; iteration++) {
+        // Bounds of the bisection: latest objective reached, and lowest objective the solver failed to reach
+        int feasibleObjective = 0;
+        int infeasibleObjective = zone.capacity + 1;
+        int nbSolves = 0;
 
-            // Create model and variables for the allocator
-            allocator = new Allocator(context, latestAllocation, latestObjective, overlap, maxDisjointLevel);
+        if (context.greedyRepair && !context.allocation.isEmpty()) {
+            GreedyRepair repair = GreedyRepair.repair(context, overlap);
+            // The models enforce the cap on the moves, the greedy repair only checks it
+            if (repair != null && context.maxMoves >= 0 && countMoves(context, repair.repairedAllocation) > context.maxMoves) {
+                repair = null;
+            }
+            if (repair != null) {
+                latestAllocation = repair.repairedAllocation;
+                objectiveList.add(latestAllocation.allocatedLocationCount);
+                printAllocationStatistics(latestAllocation, zone);
+                writeAllocation(context, latestAllocation);
+                System.out.println("Objective values: " + objectiveList);
+                context.allocation.convertTo(latestAllocation);
+                return new Result(zone.name, zone.capacity, objectiveList, overlap, repair.maxDisjointLevel, nbSolves, latestAllocation);
+            }
+            System.out.println("Greedy repair stuck, building a model");
+        }
+
+        // Starting point of the models on its disjoint level, InitialProp forcing it and the search completing it. The
+        // stricter levels it got stuck on are still solved from scratch
+        RoundRobinPlacement placement = null;
+        if (context.warmStart && context.allocation.isEmpty()) {
+            placement = RoundRobinPlacement.place(context, overlap);
+        }
+
+        for (int iteration = 0;; iteration++) {
 
-            // Options for debugging
-            // allocator.logEveryDecision();
-            // allocator.outputOnEveryUpdate();
-            allocator.outputSearchTree(iteration);
-            allocator.setStopCriterion();
+            // Create model and variables for the allocator. In incremental mode the model is kept as long as
+            // it finds solutions, and the search carries on from the latest one
+            boolean built = rebuild || relaxedAllocator != null;
+            if (relaxedAllocator != null) {
+                allocator = relaxedAllocator;
+                relaxedAllocator = null;
+            } else if (rebuild) {
+                // Each model of the portfolio starts from its own copy of the frozen disks
+                Allocation startAllocation = getStartAllocation(latestAllocation,
+                        !solutionList.isEmpty() && solutionDisjointLevel == maxDisjointLevel, placement, maxDisjointLevel);
+                int startObjective = latestObjective;
+                int startOverlap = overlap;
+                int startDisjointLevel = maxDisjointLevel;
+                List<Disk> startFrozenVars = frozenVars;
+                String startIteration = String.valueOf(iteration);
+                allocator = portfolio.solve(configuration -> createAllocator(context, startAllocation, startObjective,
+                        startOverlap, startDisjointLevel, new ArrayList<>(startFrozenVars), configuration, startIteration));
+                nbSolves++;
+            } else {
+                allocator.solve(SearchConfiguration.INCREMENTAL_FAIL_LIMIT);
+                nbSolves++;
+            }
+            frozenVars = allocator.frozenVars;
 
-            Solver solver = allocator.model.getSolver();
-            // Solve and print solution
-            if (solver.solve()) {
+            // Print solution
+            if (allocator.solved) {
                 reLoadOnce = true;
+                rebuild = !context.incremental;
                 Solution latestSolution = allocator.latestSolution;
 
                 try {
@@ -372,6 +713,8 @@ public class Allocator {
                     objectiveList.add(latestObjective);
 
                     latestAllocation = new Allocation(zone, allocator.diskVarList);
+                    solutionOverlap = overlap;
+                    solutionDisjointLevel = maxDisjointLevel;
 
                 } catch (Exception e) {
                     System.out.println("Cannot retrieve solution since initialized from existing alloc: " + e);
@@ -393,7 +736,7 @@ public class Allocator {
 
                 printAllocationStatistics(latestAllocation, zone);
 
-                latestAllocation.writeToFile(context.newAllocationFile);
+                writeAllocation(context, latestAllocation);
 
                 allocator.model.getSolver().printStatistics();
 
@@ -403,30 +746,94 @@ public class Allocator {
 
                 if(latestObjective >= zone.capacity) { break; }
 
-                latestObjective++;
+                // Improve by neighbourhoods of the solution rather than climbing the objective one model at a time
+                if (context.lnsTimeLimit > 0) {
+                    latestAllocation = improveWithLns(context, latestAllocation, latestObjective, overlap, maxDisjointLevel, objectiveList);
+                    latestObjective = objectiveList.get(objectiveList.size() - 1);
+                    nbSolves++;
+                    if(latestObjective >= zone.capacity) { break; }
+                }
+
+                feasibleObjective = latestObjective;
+                if (context.bisection) {
+                    // The search is not complete, a failure above may not hold from this allocation
+                    if (infeasibleObjective <= feasibleObjective) infeasibleObjective = zone.capacity + 1;
+                    latestObjective = bisect(feasibleObjective, infeasibleObjective);
+                } else {
+                    latestObjective++;
+                }
 
             } else {
                 System.out.println("Failed with disk overlap: " + overlap + " and disjoint on level: " + maxDisjointLevel);
+                rebuild = true;
+
+                // A kept model failed to improve on its latest solution, a new one failed to reach its lower bound
+                int failedObjective = built ? latestObjective : feasibleObjective + 1;
+                if (context.bisection && failedObjective > feasibleObjective + 1) {
+                    infeasibleObjective = failedObjective;
+                    latestObjective = bisect(feasibleObjective, infeasibleObjective);
+                    System.out.println("Bisecting objective between " + feasibleObjective + " and " + infeasibleObjective);
+                    System.out.println("******Restart*****");
+                    continue;
+                }
+                infeasibleObjective = zone.capacity + 1;
+
                 if(reLoadOnce) {
                    reLoadOnce = false;
-                }else {
+                } else if (context.concurrentLadder) {
+                    // Try every looser rung at once from the latest allocation, the strictest solved one is kept
+                    List<RelaxationLadder.Rung> rungs = RelaxationLadder.looserRungs(overlap, maxDisjointLevel, latestObjective, frozenVars);
+                    Allocation startAllocation = latestAllocation;
+                    RoundRobinPlacement startPlacement = placement;
+                    int startSolutionDisjointLevel = solutionList.isEmpty() ? 0 : solutionDisjointLevel;
+                    int startIteration = iteration;
+                    RelaxationLadder.Rung rung = RelaxationLadder.solve(rungs, (r, rungFrozenVars) ->
+                            createAllocator(context, getStartAllocation(startAllocation, startSolutionDisjointLevel == r.maxDisjointLevel,
+                                    startPlacement, r.maxDisjointLevel), r.startObjective, r.overlap, r.maxDisjointLevel,
+                                    rungFrozenVars, context.searchConfigurations.get(0), startIteration + "-" + r));
+                    nbSolves += rungs.stream().mapToInt(r -> r.nbSolves).sum();
+                    if (rung == null) {
+                        overlap = RelaxationLadder.MAX_OVERLAP + 1;
+                        break;
+                    }
+                    System.out.println("Relaxed to disk overlap: " + rung.overlap + " and disjoint on level: " + rung.maxDisjointLevel);
+                    overlap = rung.overlap;
+                    maxDisjointLevel = rung.maxDisjointLevel;
+                    latestObjective = rung.startObjective;
+                    feasibleObjective = Math.min(feasibleObjective, rung.startObjective);
+                    relaxedAllocator = rung.allocator;
+                } else {
                     reLoadOnce = true;
                     if(maxDisjointLevel < Disk.LEVEL) {
                         frozenVars.clear();
                         latestObjective = 0;
+                        feasibleObjective = 0;
                         maxDisjointLevel++;
                     } else {
                         overlap++;
                         latestObjective--;
                     }
                 }
-                if (overlap > 2) break;
+                if (overlap > RelaxationLadder.MAX_OVERLAP) break;
             }
 
             System.out.println("******Restart*****");
 
         }
+        if (context.minimizeMoves && !solutionList.isEmpty()) {
+            latestAllocation = minimizeMoves(context, latestAllocation, objectiveList.get(objectiveList.size() - 1),
+                    solutionOverlap, solutionDisjointLevel);
+            nbSolves++;
+        }
         System.out.println("**Done**");
+        portfolio.shutdown();
+        System.out.println("Solver invocations: " + nbSolves);
+
+        if(solutionList.isEmpty() && context.freeDiskNames != null) {
+            // The neighbourhood cannot absorb the change, typically added capacity needing new partitions everywhere
+            System.out.println("No allocation around the topology delta, re-solving the whole zone");
+            return run(new Context(context, context.topology, context.fillLevel, context.allocation.data));
+        }
 
         if(!solutionList.isEmpty()) {
             System.out.println("Found at least one solution: ");
@@ -440,7 +847,15 @@ public class Allocator {
             //System.out.println("Partition alloc: " + allocator.lastSolution);
         }
 
+        return new Result(zone.name, zone.capacity, objectiveList, solutionOverlap, solutionDisjointLevel, nbSolves,
+                solutionList.isEmpty() ? null : latestAllocation);
+    }
 
+    static void writeAllocation(Context context, Allocation allocation) {
+        allocation.writeToFile(context.newAllocationFile);
+        if(context.snapshotFile != null) {
+            AllocationSnapshot.write(allocation, context.snapshotFile);
+        }
     }
 
     // To print changes and statistics
@@ -449,125 +864,28 @@ public class Allocator {
     }
 
     public static <T extends AllocationUnit, C extends Collection<Integer>> void printCombinationStatistics(Map<T, C> allocationUnitToPartitionListMap, int k, boolean printVal) {
+        printCombinationStatistics(IntersectionStatistics.of(allocationUnitToPartitionListMap, k), printVal);
+    }
+
+    public static <T extends AllocationUnit> void printCombinationStatistics(AllocationIndex index, AllocationIndex.Level<T> level, int k, boolean printVal) {
+        printCombinationStatistics(IntersectionStatistics.of(level, index.getPartitionOrder(), k), printVal);
+    }
 
-        List<AllocationUnit> auList = new ArrayList(allocationUnitToPartitionListMap.keySet());
+    public static void printCombinationStatistics(IntersectionStatistics<?> statistics, boolean printVal) {
 
-        if(auList.size() < k) {
+        if(statistics.isEmpty()) {
             return;
         }
-        Combinations combinations = new Combinations(auList.size(), k);
-        Map<String, List<Integer>> intersectionMap = new HashMap<>();
-        for (int [] combination: combinations) {
-            // combination length must be k
-            AllocationUnit[] disks = new AllocationUnit[k];
-            for (int i = 0; i < k; i++) {
-                disks[i] = auList.get(combination[i]);
-            }
-            String name = Arrays.stream(disks).map(d -> d.name).collect(Collectors.joining("_"));
 
-            List<Integer> intersectionValue = new ArrayList<>(allocationUnitToPartitionListMap.get(disks[0]));
-            for (int i = 1; i < k; i++) {
-                intersectionValue.retainAll(allocationUnitToPartitionListMap.get(disks[i]));
-            }
-
-            if(!intersectionValue.isEmpty()) {
-                intersectionMap.put(name, intersectionValue);
-            }
-        }
         if(printVal)
-            System.out.println("Intersection Val: " + intersectionMap.entrySet().stream().map(Util.mapMapValue(v -> v.size())) .collect(Util.toMap()));
+            System.out.println("Intersection Val: " + statistics.getIntersectionSizes());
 
-        Map<Integer, Long> intersectionValMap = intersectionMap.values().stream()
-                .collect(Collectors.groupingBy(v -> v.size(), Collectors.counting()));
-
-        System.out.println("Intersection Load on " + intersectionValMap);
+        System.out.println((statistics.k == 2 ? "Pair intersection" : "Intersection") + " Load on " + statistics.getIntersectionLoad());
 
     }
 
     public static void printAllocationStatistics(Allocation allocation, Zone zone) {
-
-        Map<Integer, List<Disk>> partitionToDiskListMap = allocation.getPartitionToDiskListMap();
-        Map<Disk, List<Integer>> diskToPartitionMap = allocation.getDiskToPartitionListMap();
-
-        System.out.println("Disk: " + diskToPartitionMap.entrySet().stream().collect(Collectors.toMap(e->e.getKey(), e-> e.getValue().size())));
-
-        Map<Integer, Integer> partitionReplicas = partitionToDiskListMap.entrySet().stream()
-                .map(Util.mapMapValue(diskList -> diskList.size()))
-                .collect(Util.toMap());
-
-        System.out.println("Partition replicas: " + partitionReplicas);
-
-        Map<Integer, List<Disk>> unSatisfiedReplicas = partitionToDiskListMap.entrySet().stream()
-                .filter(e -> e.getValue().size()!=3)
-                .collect(Util.toMap());
-
-        System.out.println("Unsatisfied replicas: " + unSatisfiedReplicas.keySet());
-
-        Set<Disk> unSatisfyingLocations = unSatisfiedReplicas.values().stream()
-                .flatMap(k -> k.stream())
-                .sorted()
-                .collect(Collectors.toCollection(LinkedHashSet::new));
-
-        System.out.println("Unsatisfied Locations:" + unSatisfyingLocations);
-
-        System.out.println("For disk: ");
-        printCombinationStatistics(diskToPartitionMap);
-
-        Map<Disk, Long> diskCard = diskToPartitionMap.entrySet().stream()
-                .map(Util.mapMapValue(l -> l.stream().distinct().count()))
-                .collect(Util.toMap());
-        System.out.println("Unsatisfied disk Cardinality: " + diskCard.entrySet().stream()
-                .filter(e -> e.getKey().capacity != e.getValue())
-                .map(e -> Map.entry(e.getKey().name, e.getValue()+"/"+e.getKey().capacity))
-                .collect(Util.toMap()));
-        System.out.println("Disk card sum: " + diskCard.values().stream().mapToLong(Long::longValue).sum());
-
-        Map<Host, List<Integer>> hostToPartitionListMap = allocation.getHostToPartitionListMap();
-
-        System.out.println("For host: ");
-        printCombinationStatistics(hostToPartitionListMap);
-
-        Map<Host, Long> hostCard = hostToPartitionListMap.entrySet().stream()
-                .map(Util.mapMapValue(l -> l.stream().distinct().count()))
-                .collect(Util.toMap());
-
-        System.out.println("Unsatisfied host Cardinality: " + hostCard.entrySet().stream()
-                .filter(e -> e.getKey().capacity != e.getValue())
-                .map(e -> Map.entry(e.getKey().name, e.getValue()+"/"+e.getKey().capacity))
-                .collect(Util.toMap()));
-        System.out.println("Host card sum: " + hostCard.values().stream().mapToLong(Long::longValue).sum());
-
-        Map<Chassis, List<Integer>> chassisToPartitionListMap = allocation.getChassisToPartitionListMap();
-
-        System.out.println("For chassis: ");
-        printCombinationStatistics(chassisToPartitionListMap, 3, true);
-
-        Map<Chassis, Long> chassisCard = chassisToPartitionListMap.entrySet().stream()
-                .map(Util.mapMapValue(l -> l.stream().distinct().count()))
-                .collect(Util.toMap());
-
-        System.out.println("Unsatisfied chassis cardinality: " + chassisCard.entrySet().stream()
-                .filter(e -> e.getKey().capacity != e.getValue())
-                .map(e -> Map.entry(e.getKey().name, e.getValue()+"/"+e.getKey().capacity))
-                .collect(Util.toMap()));
-        System.out.println("Chassis card sum: " + chassisCard.values().stream().mapToLong(Long::longValue).sum());
-
-        Map<Rack, List<Integer>> rackToPartitionListMap = allocation.getRackToPartitionListMap();
-
-        System.out.println("For rack: ");
-        printCombinationStatistics(rackToPartitionListMap, 3, true);
-
-        Map<Rack, Long> rackCard = rackToPartitionListMap.entrySet().stream()
-                .map(Util.mapMapValue(l -> l.stream().distinct().count()))
-                .collect(Util.toMap());
-
-        System.out.println("Unsatisfied rack cardinality: " + rackCard.entrySet().stream()
-                .filter(e -> e.getKey().capacity != e.getValue())
-                .map(e -> Map.entry(e.getKey().name, e.getValue()+"/"+e.getKey().capacity))
-                .collect(Util.toMap()));
-        System.out.println("Rack card sum: " + rackCard.values().stream().mapToLong(Long::longValue).sum());
-
-        System.out.println("Total partition capacity: " + zone.capacity);
+        new AllocationStatistics(allocation).print();
     }
 
     // Unused methods
@@ -633,13 +951,11 @@ public class Allocator {
     public void logEveryDecision() {
         class MyDecisionMessage implements IMessage {
 
-            Map<SetVar, Set<Integer>> lastLB;
-            Map<SetVar, Set<Integer>> lastUB;
+            Map<SetVar, VariableMonitor> lastValues;
             List<SetVar> setVars;
 
             public MyDecisionMessage() {
-                lastLB = new LinkedHashMap<>();
-                lastUB = new LinkedHashMap<>();
+                lastValues = new LinkedHashMap<>();
 
                 setVars = new ArrayList<>();
                 setVars.addAll(rackVarList);
@@ -647,8 +963,7 @@ public class Allocator {
                 setVars.addAll(hostVarList);
                 setVars.addAll(diskVarList);
                 for(SetVar s: setVars) {
-                    lastLB.put(s, new HashSet<>());
-                    lastUB.put(s, new HashSet<>());
+                    lastValues.put(s, new VariableMonitor());
                 }
             }
 
@@ -659,31 +974,7 @@ public class Allocator {
                 List<String> changedDecision = new LinkedList<>();
 
                 for(SetVar s: setVars) {
-                    Set<Integer> newLB = new LinkedHashSet<>();
-                    s.getLB().forEach(v -> newLB.add(v));
-
-                    Set<Integer> addedLB = new LinkedHashSet<>(newLB);
-                    Set<Integer> removedLB = new LinkedHashSet<>(lastLB.get(s));
-                    addedLB.removeAll(lastLB.get(s));
-                    removedLB.removeAll(newLB);
-
-                    Set<Integer> newUB = new LinkedHashSet<>();
-                    s.getUB().forEach(v -> newUB.add(v));
-
-                    Set<Integer> addedUB = new LinkedHashSet<>(newUB);
-                    Set<Integer> removedUB = new LinkedHashSet<>(lastUB.get(s));
-                    addedUB.removeAll(lastUB.get(s));
-                    removedUB.removeAll(newUB);
-
-                    if(addedLB.isEmpty() && removedLB.isEmpty() && addedUB.isEmpty()) return "";
-
-                    System.out.format("%s: +[%s(%d) / %s(%d)] | -[%s(%d) / %s(%d)] (%d/%d) updated due to %s%n",
-                            s.getName(), Util.sequenceNum(addedLB), addedLB.size(), Util.sequenceNum(addedUB), addedUB.size(),
-                            Util.sequenceNum(removedLB), removedLB.size(), Util.sequenceNum(removedUB), removedUB.size(),
-                            s.getCard().getLB(), s.getCard().getUB(), "Decision");
-
-                    lastLB.put(s, newLB);
-                    lastUB.put(s, newUB);
+                    if(!lastValues.get(s).printUpdate(s, "Decision")) return "";
                 }
 
                 return String.join("\n", changedDecision) + "\n" + objective.toString();
@@ -705,10 +996,7 @@ public class Allocator {
         model.getSolver().plugMonitor(new IMonitorRestart() {
             @Override
             public void beforeRestart() {
-                for(SetVar s: myDecision.setVars) {
-                    myDecision.lastLB.get(s).clear();
-                    myDecision.lastUB.get(s).clear();
-                }
+                myDecision.lastValues.values().forEach(VariableMonitor::clear);
             }
         });
     }
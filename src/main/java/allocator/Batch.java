@@ -0,0 +1,182 @@
+package allocator;
+
+import org.apache.commons.cli.*;
+import org.apache.commons.io.FilenameUtils;
+import topology.Topology;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Allocates several zones in one process, solving them concurrently on a fixed pool.
+ *
+ * Each zone gets its allocation file and the log of its run in the output directory, and a summary table of all
+ * the zones is written to summary.txt once they are done. Arguments after "--" are passed to every zone.
+ */
+public class Batch {
+
+    static final String SUMMARY_FILE = "summary.txt";
+
+    static class ZoneRun {
+        final String topologyFile;
+        final String allocationFile;
+        final String name;
+
+        // Null if the run failed
+        Allocator.Result result;
+        long timeMillis;
+        String error;
+
+        ZoneRun(String topologyFile, String allocationFile) {
+            this.topologyFile = topologyFile;
+            this.allocationFile = allocationFile;
+            this.name = Topology.getZoneNameFromFileName(topologyFile);
+        }
+    }
+
+    /* Sends the output of each thread, and of the threads it starts, to its own stream */
+    static class ThreadOutputStream extends OutputStream {
+        final PrintStream defaultStream;
+        final InheritableThreadLocal<PrintStream> threadStream = new InheritableThreadLocal<>();
+
+        ThreadOutputStream(PrintStream defaultStream) {
+            this.defaultStream = defaultStream;
+        }
+
+        PrintStream current() {
+            PrintStream stream = threadStream.get();
+            return stream != null ? stream : defaultStream;
+        }
+
+        @Override
+        public void write(int b) {
+            current().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            current().write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            current().flush();
+        }
+    }
+
+    public static void main(String[] args) throws ParseException, IOException, InterruptedException {
+        Options options = new Options();
+        options.addOption("d", "topology-dir", true, "Directory of the topo-*.yaml and topo-*.json files to allocate");
+        options.addOption("z", "zone", true, "Topology file to allocate, optionally followed by ',' and its existing allocations file. Can be repeated");
+        options.addOption("j", "threads", true, "Zones solved concurrently (default=number of processors)");
+        options.addOption("O", "output-dir", true, "Directory of the allocations, logs and summary (default=batch-output)");
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+
+        List<ZoneRun> zones = new ArrayList<>();
+        if (cmd.hasOption("topology-dir")) {
+            File[] files = new File(cmd.getOptionValue("topology-dir"))
+                    .listFiles((dir, name) -> name.matches("topo-.*\\.(yaml|json)"));
+            if (files == null) {
+                throw new FileNotFoundException("Cannot list topology directory " + cmd.getOptionValue("topology-dir"));
+            }
+            Arrays.sort(files);
+            for (File file: files) {
+                zones.add(new ZoneRun(file.getPath(), ""));
+            }
+        }
+        if (cmd.hasOption("zone")) {
+            for (String zone: cmd.getOptionValues("zone")) {
+                String[] files = zone.split(",", 2);
+                zones.add(new ZoneRun(files[0], files.length > 1 ? files[1] : ""));
+            }
+        }
+        if (zones.isEmpty()) {
+            System.err.println("No zone to allocate, use -d or -z");
+            System.exit(1);
+        }
+
+        int nbThreads = Integer.parseInt(cmd.getOptionValue("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        String outputDir = cmd.getOptionValue("output-dir", "batch-output");
+        new File(outputDir).mkdirs();
+        List<String> zoneArgs = cmd.getArgList();
+
+        run(zones, zoneArgs, outputDir, nbThreads);
+
+        String summary = summary(zones);
+        System.out.print(summary);
+        try (Writer writer = new FileWriter(FilenameUtils.concat(outputDir, SUMMARY_FILE))) {
+            writer.write(summary);
+        }
+    }
+
+    static void run(List<ZoneRun> zones, List<String> zoneArgs, String outputDir, int nbThreads) throws InterruptedException {
+        PrintStream stdout = System.out;
+        ThreadOutputStream threadOutput = new ThreadOutputStream(stdout);
+        System.setOut(new PrintStream(threadOutput, true));
+
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (ZoneRun zone: zones) {
+                tasks.add(() -> {
+                    String logFile = FilenameUtils.concat(outputDir, zone.name + ".log");
+                    try (PrintStream log = new PrintStream(new FileOutputStream(logFile), true)) {
+                        threadOutput.threadStream.set(log);
+                        stdout.println("Allocating zone " + zone.name + ", logging to " + logFile);
+                        solve(zone, zoneArgs, outputDir);
+                        if (zone.error != null) log.println(zone.error);
+                    } finally {
+                        threadOutput.threadStream.remove();
+                    }
+                    stdout.println("Zone " + zone.name + " done in " + zone.timeMillis + "ms");
+                    return null;
+                });
+            }
+            executor.invokeAll(tasks);
+        } finally {
+            executor.shutdown();
+            System.setOut(stdout);
+        }
+    }
+
+    static void solve(ZoneRun zone, List<String> zoneArgs, String outputDir) {
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "-t", zone.topologyFile,
+                "-o", FilenameUtils.concat(outputDir, zone.name + ".part")));
+        if (!zone.allocationFile.isEmpty()) {
+            args.add("-i");
+            args.add(zone.allocationFile);
+        }
+        args.addAll(zoneArgs);
+
+        long start = System.nanoTime();
+        try {
+            zone.result = Allocator.run(new Context(args.toArray(new String[0])));
+        } catch (Exception e) {
+            StringWriter stackTrace = new StringWriter();
+            e.printStackTrace(new PrintWriter(stackTrace));
+            zone.error = stackTrace.toString();
+        }
+        zone.timeMillis = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    static String summary(List<ZoneRun> zones) {
+        StringBuilder summary = new StringBuilder();
+        Formatter formatter = new Formatter(summary);
+        String format = "%-20s %10s %-8s %10s %10s %8s %9s %8s%n";
+        formatter.format(format, "Zone", "Time (ms)", "Status", "Objective", "Capacity", "Overlap", "Disjoint", "Solves");
+        for (ZoneRun zone: zones) {
+            if (zone.result == null) {
+                formatter.format(format, zone.name, zone.timeMillis, "ERROR", "-", "-", "-", "-", "-");
+                continue;
+            }
+            Allocator.Result result = zone.result;
+            formatter.format(format, zone.name, zone.timeMillis, result.isSolved() ? "SOLVED" : "FAILED",
+                    result.getObjective(), result.capacity, result.overlap, result.maxDisjointLevel, result.nbSolves);
+        }
+        return summary.toString();
+    }
+}
@@ -2,17 +2,24 @@ package allocator;
 
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FilenameUtils;
+import topology.AllocationUnit;
 import topology.Disk;
 import topology.Topology;
 import topology.Zone;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class Context {
     static final int REPLICATION_FACTOR = 3;
+    static final int DEFAULT_NEIGHBOURHOOD_SIZE = 64;
+    // Per user: in a shared directory, another user could plant the topology being allocated
+    static final String DEFAULT_TOPOLOGY_CACHE_DIR =
+            FilenameUtils.concat(System.getProperty("user.home"), FilenameUtils.concat(".cache", "partition-allocator"));
 
     final String topologyFile;
     final double fillLevel;
@@ -24,12 +31,82 @@ public class Context {
     final public Allocation allocation;
 
     final String newAllocationFile;
+    final String snapshotFile;
+    final boolean incremental;
+    final boolean bisection;
+    final List<SearchConfiguration> searchConfigurations;
+    final boolean concurrentLadder;
+    final boolean greedyRepair;
+    final boolean warmStart;
+    // Time limit of the large neighbourhood search improving the first allocation, 0 without it
+    final long lnsTimeLimit;
+    // After the best objective, minimize the partitions moved from the existing allocation
+    final boolean minimizeMoves;
+    // Most weighted moves of any allocation, negative without a cap
+    final int maxMoves;
+    // Weight of a partition moved onto a disk, by name of the disk or its closest named ancestor, 1 otherwise
+    final Map<String, Integer> moveWeights;
+    // Order the interchangeable empty disks, hosts and chassis of each model
+    final boolean symmetryBreaking;
+
+    final int neighbourhoodSize;
+    // Disks the allocation may change after a topology delta, the others keeping their partitions. Null for all
+    final Set<String> freeDiskNames;
+
+    /* Options of BASE on another topology and allocation, the zone keeping its name */
+    public Context(Context base, Topology topology, double fillLevel, Map<String, int[]> allocationData) {
+        this(base, topology, fillLevel, allocationData, null);
+    }
+
+    /* As above, only re-solving the neighbourhood of DELTA when not null */
+    public Context(Context base, Topology topology, double fillLevel, Map<String, int[]> allocationData, TopologyDelta delta) {
+        topologyFile = base.topologyFile;
+        this.fillLevel = fillLevel;
+        this.topology = topology;
+        zone = new Zone(base.zone.name, topology.compiled);
+
+        allocationFile = base.allocationFile;
+        allocation = new Allocation(zone, allocationData);
+
+        newAllocationFile = base.newAllocationFile;
+        snapshotFile = base.snapshotFile;
+        incremental = base.incremental;
+        bisection = base.bisection;
+        searchConfigurations = base.searchConfigurations;
+        concurrentLadder = base.concurrentLadder;
+        greedyRepair = base.greedyRepair;
+        warmStart = base.warmStart;
+        lnsTimeLimit = base.lnsTimeLimit;
+        minimizeMoves = base.minimizeMoves;
+        maxMoves = base.maxMoves;
+        moveWeights = base.moveWeights;
+        symmetryBreaking = base.symmetryBreaking;
+        neighbourhoodSize = base.neighbourhoodSize;
+        freeDiskNames = delta == null ? null : delta.getFreeDiskNames(zone, allocation, neighbourhoodSize);
+    }
 
-    public Context(String[] args) throws ParseException, FileNotFoundException {
+    public Context(String[] args) throws ParseException, IOException {
         Options options = new Options();
         options.addOption("t", "topology-file", true, "Topology file");
         options.addOption("i", "partitions-input-file", true, "Existing allocations file");
         options.addOption("o", "partitions-output-file", true, "New allocations file");
+        options.addOption("s", "snapshot-output-file", true, "Also write the new allocations as a binary snapshot (" + AllocationSnapshot.EXTENSION + ")");
+        options.addOption(null, "topology-cache-dir", true, "Directory of the compiled topologies (default=~/.cache/partition-allocator)");
+        options.addOption(null, "no-topology-cache", false, "Always parse the topology file");
+        options.addOption(null, "incremental", false, "Keep the model while solutions are found, only tightening the objective");
+        options.addOption(null, "bisection", false, "Bisect the objective between the latest solution and the zone capacity instead of raising it by one");
+        options.addOption(null, "portfolio", true, "Number of search configurations solved concurrently, the first solution winning (default=1)");
+        options.addOption(null, "seed", true, "Seed of the randomized search configurations of the portfolio (default=0)");
+        options.addOption(null, "concurrent-ladder", false, "On failure, try all the looser overlap and disjoint levels concurrently, keeping the strictest solved one");
+        options.addOption(null, "greedy-repair", false, "First re-replicate the lost partitions greedily, only building a model if it gets stuck");
+        options.addOption(null, "warm-start", false, "Start a fresh allocation from a round-robin placement of the partitions across the hierarchy");
+        options.addOption(null, "lns", true, "Seconds spent improving the first allocation by a large neighbourhood search on failure domains, instead of raising the objective one model at a time");
+        options.addOption(null, "min-moves", false, "Once the objective cannot be raised, minimize the partitions moved from the existing allocation");
+        options.addOption(null, "max-moves", true, "Most partitions moved from the existing allocation, weighted by --move-weights");
+        options.addOption(null, "move-weights", true, "Weights of a partition moved onto the disks of a unit, as <unit>=<weight>,... (default=1)");
+        options.addOption(null, "symmetry-breaking", false, "Order the interchangeable empty disks, hosts and chassis by their smallest partition");
+        options.addOption(null, "delta", true, "Topology changes applied to the topology file, only re-solving the disks around them");
+        options.addOption(null, "neighbourhood-size", true, "Disks re-solved around a delta, besides its failure domains and free locations (default=" + DEFAULT_NEIGHBOURHOOD_SIZE + ")");
         options.addOption("f", "fill-level", true, "Fill level (default=0.8)");
         options.addOption("p", "print", false, "Only print data about the existing allocation");
 
@@ -39,11 +116,21 @@ public class Context {
         // Read topology of the zone and adjust used capacity by fill-level
         topologyFile = cmd.getOptionValue("topology-file");
         fillLevel = Double.parseDouble(cmd.getOptionValue("fill-level", "0.8"));
-        topology = new Topology(topologyFile, fillLevel, REPLICATION_FACTOR);
+        String topologyCacheDir = cmd.hasOption("no-topology-cache") ? null
+                : cmd.getOptionValue("topology-cache-dir", DEFAULT_TOPOLOGY_CACHE_DIR);
+        Topology loaded = new Topology(topologyFile, fillLevel, REPLICATION_FACTOR, topologyCacheDir);
+        TopologyDelta delta = null;
+        if (cmd.hasOption("delta")) {
+            delta = TopologyDelta.read(cmd.getOptionValue("delta"));
+            Map<String, Map<String, Map<String, List<Integer>>>> data = loaded.getData();
+            delta.apply(data);
+            loaded = new Topology(data, fillLevel, REPLICATION_FACTOR);
+        }
+        topology = loaded;
 
         // Create zone object from topology
         String zoneName = Topology.getZoneNameFromFileName(topologyFile);
-        zone = new Zone(zoneName, topology.dataUsed);
+        zone = new Zone(zoneName, topology.compiled);
 
         allocationFile = cmd.getOptionValue("partitions-input-file", "");
 
@@ -54,8 +141,26 @@ public class Context {
             defaultNewAllocFile = FilenameUtils.concat(FilenameUtils.getPath(allocationFile), defaultNewAllocFileName);
         }
         newAllocationFile = cmd.getOptionValue("partitions-output-file", defaultNewAllocFile);
+        snapshotFile = cmd.getOptionValue("snapshot-output-file");
+        incremental = cmd.hasOption("incremental");
+        bisection = cmd.hasOption("bisection");
+        concurrentLadder = cmd.hasOption("concurrent-ladder");
+        greedyRepair = cmd.hasOption("greedy-repair");
+        warmStart = cmd.hasOption("warm-start");
+        lnsTimeLimit = (long) (Double.parseDouble(cmd.getOptionValue("lns", "0")) * 1000);
+        minimizeMoves = cmd.hasOption("min-moves");
+        maxMoves = Integer.parseInt(cmd.getOptionValue("max-moves", "-1"));
+        moveWeights = Arrays.stream(cmd.getOptionValue("move-weights", "").split(","))
+                .filter(w -> !w.isEmpty())
+                .map(w -> w.split("="))
+                .collect(Collectors.toMap(w -> w[0], w -> Integer.parseInt(w[1])));
+        symmetryBreaking = cmd.hasOption("symmetry-breaking");
+        searchConfigurations = SearchConfiguration.portfolio(Integer.parseInt(cmd.getOptionValue("portfolio", "1")),
+                Long.parseLong(cmd.getOptionValue("seed", "0")));
 
         allocation = new Allocation(zone, allocationFile);
+        neighbourhoodSize = Integer.parseInt(cmd.getOptionValue("neighbourhood-size", String.valueOf(DEFAULT_NEIGHBOURHOOD_SIZE)));
+        freeDiskNames = delta == null ? null : delta.getFreeDiskNames(zone, allocation, neighbourhoodSize);
 
         boolean onlyPrint = cmd.hasOption("print");
         if (onlyPrint) {
@@ -64,8 +169,8 @@ public class Context {
                 System.exit(1);
             }
             Allocator.printAllocationStatistics(allocation, zone);
-            Map<Disk, Integer> usedDiskCapacity = Util.deepCopy(allocation.data).entrySet().stream()
-                    .map(Util.mapMapEntry(s -> zone.getDiskFromName(s), l -> l.size()))
+            Map<Disk, Integer> usedDiskCapacity = allocation.data.entrySet().stream()
+                    .map(Util.mapMapEntry(s -> zone.getDiskFromName(s), l -> l.length))
                     .collect(Util.toMap());
 
             Map<String, Map<String, Map<String, List<Integer>>>> usedTopologyCapacity = zone.rackList.stream()
@@ -84,4 +189,23 @@ public class Context {
         }
 
     }
+
+    /* Whether the models count the partitions moved from the existing allocation */
+    boolean countsMoves() {
+        return minimizeMoves || maxMoves >= 0;
+    }
+
+    /* Weight of a partition moved onto DISK */
+    int getMoveWeight(Disk disk) {
+        for (AllocationUnit unit = disk; unit != null; unit = unit.parent) {
+            Integer weight = moveWeights.get(unit.name);
+            if (weight != null) return weight;
+        }
+        return 1;
+    }
+
+    /* Whether the allocation of DISK may change */
+    boolean isFree(Disk disk) {
+        return freeDiskNames == null || freeDiskNames.contains(disk.name);
+    }
 }
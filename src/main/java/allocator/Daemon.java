@@ -0,0 +1,228 @@
+package allocator;
+
+import org.apache.commons.cli.ParseException;
+import topology.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Keeps a zone loaded and re-plans its allocation on topology events read from stdin, one per line:
+ *
+ *   fail <unit>                                 capacity of a rack, chassis, host or disk drops to 0
+ *   add <topology-file>                         adds the racks, chassis and hosts of a topology file
+ *   add-host <rack> <chassis> <host> <c1,c2..>  adds a host (and its rack and chassis if new)
+ *   delta <delta-file>                          applies the changes of a TopologyDelta file, only re-solving the
+ *                                               disks around them
+ *   fill <level>                                changes the fill level
+ *   solve                                       re-plans without change
+ *   quit
+ *
+ * Each event is answered on stdout by "OK", "FAILED" or "ERROR" with details, the changes of the allocation and
+ * "END". The changes are listed per disk: "Add" for a disk holding no partition before, "Mv in" and "Mv out" for the
+ * partitions moved to and from it, and "Del" for its partitions dropped because the partition count shrank. An event
+ * is applied to a copy of the topology and fill level, only kept once solved. The log of the allocator goes to stderr.
+ * Takes the same options as Allocator.
+ */
+public class Daemon {
+
+    final PrintStream out;
+
+    Context context;
+    Map<String, Map<String, Map<String, List<Integer>>>> topologyData;
+    double fillLevel;
+    // Latest allocation, keyed by disk name
+    Map<String, int[]> allocationData;
+
+    Daemon(Context context, PrintStream out) {
+        this.context = context;
+        this.out = out;
+        this.topologyData = context.topology.getData();
+        this.fillLevel = context.fillLevel;
+        this.allocationData = context.allocation.data;
+    }
+
+    public static void main(String[] args) throws ParseException, IOException {
+        PrintStream out = System.out;
+        System.setOut(System.err);
+
+        Daemon daemon = new Daemon(new Context(args), out);
+        out.println("READY " + daemon.context.zone.name);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            if (line.equals("quit")) break;
+            daemon.handle(line);
+        }
+    }
+
+    void handle(String line) {
+        String[] words = line.split("\\s+");
+        Map<String, Map<String, Map<String, List<Integer>>>> newTopologyData = copy(topologyData);
+        double newFillLevel = fillLevel;
+        TopologyDelta delta = null;
+        try {
+            switch (words[0]) {
+                case "fail":
+                    checkArguments(words, 2);
+                    fail(newTopologyData, words[1]);
+                    break;
+                case "add":
+                    checkArguments(words, 2);
+                    add(newTopologyData, Topology.readFromFile(words[1]));
+                    break;
+                case "add-host":
+                    checkArguments(words, 5);
+                    List<Integer> diskCapacities = new ArrayList<>();
+                    for (String capacity: words[4].split(",")) {
+                        diskCapacities.add(Integer.parseInt(capacity));
+                    }
+                    add(newTopologyData, Map.of(words[1], Map.of(words[2], Map.of(words[3], diskCapacities))));
+                    break;
+                case "delta":
+                    checkArguments(words, 2);
+                    delta = TopologyDelta.read(words[1]);
+                    delta.apply(newTopologyData);
+                    break;
+                case "fill":
+                    checkArguments(words, 2);
+                    newFillLevel = Double.parseDouble(words[1]);
+                    break;
+                case "solve":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command: " + words[0]);
+            }
+            solve(newTopologyData, newFillLevel, delta);
+        } catch (Exception e) {
+            e.printStackTrace();
+            out.println("ERROR " + e.getMessage());
+            out.println("END");
+        }
+    }
+
+    private static void checkArguments(String[] words, int size) {
+        if (words.length != size) {
+            throw new IllegalArgumentException(words[0] + " takes " + (size - 1) + " argument(s)");
+        }
+    }
+
+    /* Deep copy of TOPOLOGYDATA, for an event to modify */
+    static Map<String, Map<String, Map<String, List<Integer>>>> copy(Map<String, Map<String, Map<String, List<Integer>>>> topologyData) {
+        Map<String, Map<String, Map<String, List<Integer>>>> copy = new LinkedHashMap<>();
+        topologyData.forEach((rack, rackData) ->
+                rackData.forEach((chassis, chassisData) ->
+                        chassisData.forEach((host, diskCapacities) -> copy
+                                .computeIfAbsent(rack, r -> new LinkedHashMap<>())
+                                .computeIfAbsent(chassis, c -> new LinkedHashMap<>())
+                                .put(host, new ArrayList<>(diskCapacities)))));
+        return copy;
+    }
+
+    /* Sets the capacity in ZONEDATA of the disks of the named unit to 0, their partitions are moved by the next solve */
+    void fail(Map<String, Map<String, Map<String, List<Integer>>>> zoneData, String name) {
+        List<Disk> disks = null;
+        Zone zone = context.zone;
+        AllocationUnit unit = zone.getDiskFromName(name);
+        if (unit != null) {
+            disks = List.of((Disk) unit);
+        } else if ((unit = zone.findName(zone.hostList, name)) != null) {
+            disks = ((Host) unit).diskList;
+        } else if ((unit = zone.findName(zone.chassisList, name)) != null) {
+            disks = ((Chassis) unit).diskList;
+        } else if ((unit = zone.getRackFromName(name)) != null) {
+            disks = ((Rack) unit).diskList;
+        }
+        if (disks == null) {
+            throw new IllegalArgumentException("No rack, chassis, host or disk named " + name);
+        }
+
+        for (Disk disk: disks) {
+            zoneData.get(disk.rack.name).get(disk.chassis.name).get(disk.host.name).set(disk.index, 0);
+        }
+    }
+
+    /* Adds to ZONEDATA the hosts of ADDEDDATA, replacing the disks of the existing ones */
+    void add(Map<String, Map<String, Map<String, List<Integer>>>> zoneData, Map<String, Map<String, Map<String, List<Integer>>>> addedData) {
+        addedData.forEach((rack, rackData) ->
+                rackData.forEach((chassis, chassisData) ->
+                        chassisData.forEach((host, diskCapacities) -> zoneData
+                                .computeIfAbsent(rack, r -> new LinkedHashMap<>())
+                                .computeIfAbsent(chassis, c -> new LinkedHashMap<>())
+                                .put(host, new ArrayList<>(diskCapacities)))));
+    }
+
+    /* Re-plans the latest allocation on NEWTOPOLOGYDATA and NEWFILLLEVEL, around DELTA if not null, and answers with
+       its changes. The new topology and allocation are kept only if solved */
+    void solve(Map<String, Map<String, Map<String, List<Integer>>>> newTopologyData, double newFillLevel, TopologyDelta delta) {
+        long start = System.nanoTime();
+        Topology topology = new Topology(newTopologyData, newFillLevel, Context.REPLICATION_FACTOR);
+        Context newContext = new Context(context, topology, newFillLevel, allocationData, delta);
+
+        Allocator.Result result = Allocator.run(newContext);
+        long timeMillis = (System.nanoTime() - start) / 1_000_000;
+
+        if (!result.isSolved()) {
+            out.println("FAILED time=" + timeMillis + "ms");
+            out.println("END");
+            return;
+        }
+
+        out.println("OK objective=" + result.getObjective() + "/" + result.capacity + " overlap=" + result.overlap
+                + " disjoint=" + result.maxDisjointLevel + " time=" + timeMillis + "ms allocation=" + newContext.newAllocationFile);
+        getChanges(allocationData, result.latestAllocation).forEach(out::println);
+        out.println("END");
+
+        context = newContext;
+        topologyData = newTopologyData;
+        fillLevel = newFillLevel;
+        allocationData = result.latestAllocation.data;
+    }
+
+    /* Changes of each disk from OLDDATA, keyed by disk name, to NEWALLOCATION. Partitions outside the partition range
+       of NEWALLOCATION are deleted, the others moved out */
+    static List<String> getChanges(Map<String, int[]> oldData, Allocation newAllocation) {
+        int firstPartition = newAllocation.partitionList.isEmpty() ? 0 : newAllocation.partitionList.get(0);
+        int nbPartitions = newAllocation.partitionList.size();
+
+        Set<String> diskNames = new LinkedHashSet<>(oldData.keySet());
+        diskNames.addAll(newAllocation.data.keySet());
+
+        List<String> changes = new ArrayList<>();
+        for (String disk: diskNames) {
+            Set<Integer> oldPartitions = toSet(oldData.get(disk));
+            Set<Integer> newPartitions = toSet(newAllocation.data.get(disk));
+
+            List<Integer> deleted = new ArrayList<>();
+            List<Integer> movedOut = new ArrayList<>();
+            for (int p: oldPartitions) {
+                if (newPartitions.contains(p)) continue;
+                if (p < firstPartition || p >= firstPartition + nbPartitions) {
+                    deleted.add(p);
+                } else {
+                    movedOut.add(p);
+                }
+            }
+            List<Integer> movedIn = new ArrayList<>();
+            for (int p: newPartitions) {
+                if (!oldPartitions.contains(p)) movedIn.add(p);
+            }
+
+            if (!deleted.isEmpty()) changes.add("Del " + disk + " : " + Util.sequenceNum(deleted));
+            if (!movedOut.isEmpty()) changes.add("Mv out " + disk + " : " + Util.sequenceNum(movedOut));
+            if (!movedIn.isEmpty()) changes.add((oldPartitions.isEmpty() ? "Add " : "Mv in ") + disk + " : " + Util.sequenceNum(movedIn));
+        }
+        return changes;
+    }
+
+    private static Set<Integer> toSet(int[] partitions) {
+        Set<Integer> set = new TreeSet<>();
+        if (partitions != null) {
+            for (int p: partitions) set.add(p);
+        }
+        return set;
+    }
+}
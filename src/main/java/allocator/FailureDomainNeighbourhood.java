@@ -0,0 +1,165 @@
+package allocator;
+
+import topology.*;
+
+import java.util.*;
+
+/**
+ * Neighbourhoods of a large neighbourhood search over the disks: each search keeps the partitions of the latest
+ * solution on every disk but the relaxed ones, which it fills again (see NeighbourhoodProp).
+ *
+ * The relaxed disks are those of one rack, of one chassis, of the pairs of disks sharing the most partitions, or
+ * the disks holding partitions with missing replicas along with the disks with free locations. The kind of
+ * neighbourhood is drawn with a probability following its weight, raised when it leads to a better solution and
+ * lowered when it does not.
+ */
+public class FailureDomainNeighbourhood {
+
+    public enum Kind {
+        RACK,
+        CHASSIS,
+        OVERLAPPING_DISKS,
+        UNDER_REPLICATED
+    }
+
+    // Share of the latest outcome in the weight of a kind, and lowest weight so a kind is never abandoned
+    static final double REACTION = 0.2;
+    static final double MIN_WEIGHT = 0.05;
+
+    final Zone zone;
+    final Random random;
+    // Disks relaxed by the overlap neighbourhood, about the disks of a chassis
+    final int overlapSize;
+
+    // Partitions of each disk in the latest solution, indexed by disk globalIndex
+    final int[][] values;
+    final double[] weights = new double[Kind.values().length];
+    final int[] nbMoves = new int[Kind.values().length];
+    final int[] nbImprovements = new int[Kind.values().length];
+
+    Kind current;
+    boolean improved;
+
+    public FailureDomainNeighbourhood(Allocation allocation, long seed) {
+        this.zone = allocation.zone;
+        this.random = new Random(seed);
+        this.overlapSize = Math.max(2, zone.diskList.size() / Math.max(1, zone.chassisList.size()));
+
+        values = new int[zone.diskList.size()][];
+        for (Disk disk: zone.diskList) {
+            values[disk.globalIndex] = allocation.getPartitions(disk);
+        }
+        Arrays.fill(weights, 1.0);
+    }
+
+    /* Latest solution, found in the current neighbourhood */
+    public void accept(Allocation allocation) {
+        for (Disk disk: zone.diskList) {
+            values[disk.globalIndex] = allocation.getPartitions(disk);
+        }
+        if (current != null && !improved) {
+            improved = true;
+            nbImprovements[current.ordinal()]++;
+            weights[current.ordinal()] = (1 - REACTION) * weights[current.ordinal()] + REACTION;
+        }
+    }
+
+    /* Draws the disks relaxed by the next search, after lowering the weight of the current kind if it failed */
+    public Set<Disk> next() {
+        if (current != null && !improved) {
+            weights[current.ordinal()] = Math.max(MIN_WEIGHT, (1 - REACTION) * weights[current.ordinal()]);
+        }
+        current = select();
+        improved = false;
+        nbMoves[current.ordinal()]++;
+        return relax(current);
+    }
+
+    /* Kind drawn with a probability proportional to its weight */
+    private Kind select() {
+        double total = Arrays.stream(weights).sum();
+        double r = random.nextDouble() * total;
+        for (Kind kind: Kind.values()) {
+            r -= weights[kind.ordinal()];
+            if (r < 0) return kind;
+        }
+        return Kind.values()[Kind.values().length - 1];
+    }
+
+    private Set<Disk> relax(Kind kind) {
+        Set<Disk> relaxed = new LinkedHashSet<>();
+        switch (kind) {
+            case RACK:
+                relaxed.addAll(zone.rackList.get(random.nextInt(zone.rackList.size())).diskList);
+                break;
+            case CHASSIS:
+                relaxed.addAll(zone.chassisList.get(random.nextInt(zone.chassisList.size())).diskList);
+                break;
+            case OVERLAPPING_DISKS:
+                relaxOverlappingDisks(relaxed);
+                break;
+            case UNDER_REPLICATED:
+                relaxUnderReplicated(relaxed);
+                break;
+        }
+        // Nothing to improve in this kind of neighbourhood, fall back to a random chassis
+        if (relaxed.isEmpty()) {
+            relaxed.addAll(zone.chassisList.get(random.nextInt(zone.chassisList.size())).diskList);
+        }
+        return relaxed;
+    }
+
+    private Map<Integer, List<Disk>> getPartitionToDiskListMap() {
+        Map<Integer, List<Disk>> partitionToDiskListMap = new HashMap<>();
+        for (Disk disk: zone.diskList) {
+            for (int partition: values[disk.globalIndex]) {
+                partitionToDiskListMap.computeIfAbsent(partition, p -> new ArrayList<>()).add(disk);
+            }
+        }
+        return partitionToDiskListMap;
+    }
+
+    /* Both disks of the pairs sharing the most partitions, ties in random order */
+    private void relaxOverlappingDisks(Set<Disk> relaxed) {
+        int nbDisks = zone.diskList.size();
+        Map<Integer, Integer> pairOverlap = new HashMap<>();
+        for (List<Disk> disks: getPartitionToDiskListMap().values()) {
+            for (int i = 0; i < disks.size(); i++) {
+                for (int j = i + 1; j < disks.size(); j++) {
+                    int d1 = Math.min(disks.get(i).globalIndex, disks.get(j).globalIndex);
+                    int d2 = Math.max(disks.get(i).globalIndex, disks.get(j).globalIndex);
+                    pairOverlap.merge(d1 * nbDisks + d2, 1, Integer::sum);
+                }
+            }
+        }
+
+        List<Integer> pairs = new ArrayList<>(pairOverlap.keySet());
+        Collections.shuffle(pairs, random);
+        pairs.sort(Comparator.comparing(pair -> -pairOverlap.get(pair)));
+        for (int pair: pairs) {
+            if (relaxed.size() >= overlapSize) break;
+            relaxed.add(zone.diskList.get(pair / nbDisks));
+            relaxed.add(zone.diskList.get(pair % nbDisks));
+        }
+    }
+
+    /* Disks holding partitions with missing replicas, and the disks which may take them */
+    private void relaxUnderReplicated(Set<Disk> relaxed) {
+        getPartitionToDiskListMap().values().stream()
+                .filter(disks -> disks.size() < Context.REPLICATION_FACTOR)
+                .forEach(relaxed::addAll);
+        for (Disk disk: zone.diskList) {
+            if (values[disk.globalIndex].length < disk.capacity) relaxed.add(disk);
+        }
+    }
+
+    /* Moves and improving moves of each kind of neighbourhood */
+    public String getStatistics() {
+        StringBuilder statistics = new StringBuilder();
+        for (Kind kind: Kind.values()) {
+            statistics.append(String.format("%s: %d/%d (weight %.2f) ", kind.name().toLowerCase(),
+                    nbImprovements[kind.ordinal()], nbMoves[kind.ordinal()], weights[kind.ordinal()]));
+        }
+        return statistics.toString().trim();
+    }
+}
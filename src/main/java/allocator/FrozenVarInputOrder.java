@@ -1,5 +1,6 @@
 package allocator;
 
+import org.chocosolver.memory.IStateInt;
 import org.chocosolver.solver.Model;
 import org.chocosolver.solver.search.strategy.selectors.variables.InputOrder;
 import org.chocosolver.solver.variables.SetVar;
@@ -11,8 +12,9 @@ import java.util.List;
 public class FrozenVarInputOrder extends InputOrder<SetVar> {
 
     final List<Disk> frozenVars;
-    int frozenVarIdx;
-    int idx;
+    // Trailed, so that the variables are selected again after a backtrack or a restart
+    final IStateInt frozenVarIdx;
+    final IStateInt idx;
 
     /**
      * Input Order on frozenVars first and then on the rest
@@ -21,18 +23,18 @@ public class FrozenVarInputOrder extends InputOrder<SetVar> {
     public FrozenVarInputOrder(Model model, List<Disk> frozenVars) {
         super(model);
         this.frozenVars = frozenVars;
-        this.frozenVarIdx = 0;
-        this.idx = 0;
+        this.frozenVarIdx = model.getEnvironment().makeInt(0);
+        this.idx = model.getEnvironment().makeInt(0);
     }
 
     @Override
     public SetVar getVariable(SetVar[] variables) {
-        for (int idx = frozenVarIdx; idx < frozenVars.size(); idx++) {
+        for (int idx = frozenVarIdx.get(); idx < frozenVars.size(); idx++) {
             Disk disk = frozenVars.get(idx);
             SetVar s = Arrays.stream(variables).filter(v -> v.getName().equals(disk.name)).findAny().orElse(null);
             if(s == null) return null;
             if (!s.isInstantiated()) {
-                frozenVarIdx = idx;
+                frozenVarIdx.set(idx);
                 //System.out.println(s.getCard().getUB() != s.getCard().getLB());
                 //System.out.println("Selecting f-var: " + s.getName() + ":"
                 //        + s.getCard().getLB() + "/" + s.getCard().getUB() + " | "
@@ -42,12 +44,12 @@ public class FrozenVarInputOrder extends InputOrder<SetVar> {
                 //System.out.println(s.getName() + ": " + Util.toPrettyVal(s));
             }
         }
-        frozenVarIdx = frozenVars.size();
+        frozenVarIdx.set(frozenVars.size());
 
-        for(int i = idx; i < variables.length; i++) {
+        for(int i = idx.get(); i < variables.length; i++) {
             SetVar s = variables[i];
             if (!s.isInstantiated()) {
-                idx = i;
+                idx.set(i);
                 //System.out.println(s.getCard().getUB() != s.getCard().getLB());
                 //System.out.println("Selecting var: " + s.getName() + ":"
                 //        + s.getCard().getLB() + "/" + s.getCard().getUB() + " | "
@@ -57,7 +59,7 @@ public class FrozenVarInputOrder extends InputOrder<SetVar> {
                 //System.out.println(s.getName() + ": " + Util.toPrettyVal(s));
             }
         }
-        idx = variables.length;
+        idx.set(variables.length);
         return null;
         //return super.getVariable(variables);
     }
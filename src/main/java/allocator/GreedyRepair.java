@@ -0,0 +1,259 @@
+package allocator;
+
+import topology.*;
+
+import java.util.*;
+
+/**
+ * Fast path re-replicating the partitions which lost replicas, typically after a disk or host failure, without
+ * building a model.
+ *
+ * Each lost replica goes to a disk with a free location which does not share a unit of the disjoint level with the
+ * other replicas, and whose overlap with each of them stays within the limit. Among those, the disk with the most
+ * free locations wins, then the one whose highest overlap with the other replicas is the lowest. Partitions with
+ * the fewest replicas left are repaired first.
+ *
+ * When a lost replica has no valid disk, a full disk compatible with its partition makes room: one of its other
+ * partitions moves to a disk with a free location valid for it, and the replica takes the freed location. The other
+ * existing replicas are kept as they are, the repair failing when no disk can make room either.
+ * Disks out of a localized re-solve are left untouched.
+ */
+public class GreedyRepair {
+
+    final Context context;
+    final Zone zone;
+    final Allocation allocation;
+    final int overlap;
+    final int maxDisjointLevel;
+
+    final int nbDisks;
+    final int firstPartition;
+    // Partitions of each disk and disks of each partition, indexed by disk globalIndex and partition offset
+    final List<List<Integer>> diskPartitions = new ArrayList<>();
+    final List<List<Disk>> partitionDisks = new ArrayList<>();
+    // Disk x disk counters of the partitions held by both disks
+    final int[] overlapCount;
+
+    int nbPlaced;
+    // Repaired allocation, null until solved
+    Allocation repairedAllocation;
+
+    GreedyRepair(Context context, int overlap, int maxDisjointLevel) {
+        this.context = context;
+        this.zone = context.zone;
+        this.allocation = context.allocation;
+        this.overlap = overlap;
+        this.maxDisjointLevel = maxDisjointLevel;
+
+        nbDisks = zone.diskList.size();
+        firstPartition = allocation.firstPartition;
+        overlapCount = new int[nbDisks * nbDisks];
+
+        AllocationIndex.Level<Disk> diskLevel = allocation.getIndex().disk;
+        for (Disk disk: zone.diskList) {
+            List<Integer> partitions = new ArrayList<>();
+            for (int i = 0; i < diskLevel.getPartitionCount(disk); i++) {
+                partitions.add(diskLevel.getPartition(disk, i));
+            }
+            diskPartitions.add(partitions);
+        }
+        for (int partition: allocation.partitionList) {
+            List<Disk> disks = new ArrayList<>();
+            for (int i = 0; i < diskLevel.getUnitCount(partition); i++) {
+                Disk disk = diskLevel.getUnit(partition, i);
+                for (Disk other: disks) {
+                    overlapCount[disk.globalIndex * nbDisks + other.globalIndex]++;
+                    overlapCount[other.globalIndex * nbDisks + disk.globalIndex]++;
+                }
+                disks.add(disk);
+            }
+            partitionDisks.add(disks);
+        }
+    }
+
+    /* Repairs the allocation of CONTEXT on the strictest disjoint level possible, returning null if the greedy pass
+       gets stuck on all of them */
+    public static GreedyRepair repair(Context context, int overlap) {
+        long start = System.nanoTime();
+        for (int maxDisjointLevel = Rack.LEVEL; maxDisjointLevel <= Disk.LEVEL; maxDisjointLevel++) {
+            GreedyRepair repair = new GreedyRepair(context, overlap, maxDisjointLevel);
+            // The kept replicas must hold the level too, only the new ones being checked while placing
+            if (!repair.isKeptAllocationValid()) {
+                System.out.println("Existing replicas not valid with disk overlap: " + overlap
+                        + " and disjoint on level: " + maxDisjointLevel);
+                continue;
+            }
+            if (repair.solve()) {
+                System.out.println("Greedy repair placed " + repair.nbPlaced + " replicas with disk overlap: " + overlap
+                        + " and disjoint on level: " + maxDisjointLevel + " in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+                return repair;
+            }
+            System.out.println("Greedy repair stuck with disk overlap: " + overlap + " and disjoint on level: " + maxDisjointLevel);
+        }
+        return null;
+    }
+
+    boolean solve() {
+        // Partitions with the fewest replicas left first, one entry per lost replica
+        List<Integer> lostReplicas = new ArrayList<>();
+        for (int replicas = 0; replicas < Context.REPLICATION_FACTOR; replicas++) {
+            for (int p = 0; p < partitionDisks.size(); p++) {
+                if (partitionDisks.get(p).size() == replicas) {
+                    lostReplicas.addAll(Collections.nCopies(Context.REPLICATION_FACTOR - replicas, p));
+                }
+            }
+        }
+
+        for (int p: lostReplicas) {
+            Disk disk = findDisk(p);
+            if (disk == null) {
+                disk = makeRoom(p);
+            }
+            if (disk == null) {
+                System.out.println("No disk left for a replica of partition " + (firstPartition + p)
+                        + " held by " + partitionDisks.get(p));
+                return false;
+            }
+            place(p, disk);
+        }
+
+        Map<String, int[]> data = new LinkedHashMap<>();
+        for (Disk disk: zone.diskList) {
+            List<Integer> partitions = diskPartitions.get(disk.globalIndex);
+            if (!partitions.isEmpty()) {
+                data.put(disk.name, partitions.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        repairedAllocation = new Allocation(zone, data);
+        return true;
+    }
+
+    /* Whether the existing replicas of every partition are on distinct units of the disjoint level, and every pair of
+       disks overlaps within the limit */
+    boolean isKeptAllocationValid() {
+        for (List<Disk> holders: partitionDisks) {
+            for (int i = 0; i < holders.size(); i++) {
+                for (int j = i + 1; j < holders.size(); j++) {
+                    if (getDisjointUnit(holders.get(i)) == getDisjointUnit(holders.get(j))) return false;
+                }
+            }
+        }
+        for (int count: overlapCount) {
+            if (count > overlap) return false;
+        }
+        return true;
+    }
+
+    /* Best disk for a new replica of partition offset P, null if none is valid */
+    Disk findDisk(int p) {
+        List<Disk> holders = partitionDisks.get(p);
+
+        Disk bestDisk = null;
+        int bestFree = 0;
+        int bestOverlap = 0;
+        for (Disk disk: zone.diskList) {
+            int free = getFreeLocationCount(disk);
+            if (!isValid(disk, holders)) continue;
+
+            int highestOverlap = 0;
+            for (Disk holder: holders) {
+                highestOverlap = Math.max(highestOverlap, overlapCount[disk.globalIndex * nbDisks + holder.globalIndex]);
+            }
+            if (bestDisk == null || free > bestFree || (free == bestFree && highestOverlap < bestOverlap)) {
+                bestDisk = disk;
+                bestFree = free;
+                bestOverlap = highestOverlap;
+            }
+        }
+        return bestDisk;
+    }
+
+    int getFreeLocationCount(Disk disk) {
+        return disk.capacity - diskPartitions.get(disk.globalIndex).size();
+    }
+
+    /* Whether DISK may take a new replica of the partition held by HOLDERS */
+    boolean isValid(Disk disk, List<Disk> holders) {
+        return getFreeLocationCount(disk) > 0 && isCompatible(disk, holders);
+    }
+
+    /* As isValid, whatever the free locations of DISK */
+    boolean isCompatible(Disk disk, List<Disk> holders) {
+        if (!context.isFree(disk)) return false;
+
+        AllocationUnit unit = getDisjointUnit(disk);
+        for (Disk holder: holders) {
+            if (holder == disk || getDisjointUnit(holder) == unit
+                    || overlapCount[disk.globalIndex * nbDisks + holder.globalIndex] >= overlap) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Full disk compatible with partition offset P after moving one of its partitions to a disk with a free
+       location, null if there is none. Gets the greedy pass out of the dead ends of its last replicas */
+    Disk makeRoom(int p) {
+        List<Disk> holders = partitionDisks.get(p);
+        List<Disk> freeDisks = new ArrayList<>();
+        for (Disk disk: zone.diskList) {
+            if (getFreeLocationCount(disk) > 0 && context.isFree(disk)) freeDisks.add(disk);
+        }
+
+        for (Disk disk: zone.diskList) {
+            if (getFreeLocationCount(disk) > 0 || !isCompatible(disk, holders)) continue;
+
+            for (int partition: new ArrayList<>(diskPartitions.get(disk.globalIndex))) {
+                int q = partition - firstPartition;
+                if (q == p) continue;
+
+                List<Disk> otherHolders = new ArrayList<>(partitionDisks.get(q));
+                otherHolders.remove(disk);
+                for (Disk freeDisk: freeDisks) {
+                    if (!isCompatible(freeDisk, otherHolders)) continue;
+
+                    unplace(q, disk);
+                    place(q, freeDisk);
+                    return disk;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void unplace(int p, Disk disk) {
+        List<Disk> holders = partitionDisks.get(p);
+        holders.remove(disk);
+        for (Disk holder: holders) {
+            overlapCount[disk.globalIndex * nbDisks + holder.globalIndex]--;
+            overlapCount[holder.globalIndex * nbDisks + disk.globalIndex]--;
+        }
+        diskPartitions.get(disk.globalIndex).remove(Integer.valueOf(firstPartition + p));
+        nbPlaced--;
+    }
+
+    private void place(int p, Disk disk) {
+        List<Disk> holders = partitionDisks.get(p);
+        for (Disk holder: holders) {
+            overlapCount[disk.globalIndex * nbDisks + holder.globalIndex]++;
+            overlapCount[holder.globalIndex * nbDisks + disk.globalIndex]++;
+        }
+        holders.add(disk);
+        diskPartitions.get(disk.globalIndex).add(firstPartition + p);
+        nbPlaced++;
+    }
+
+    /* Unit of DISK whose partitions must be disjoint from the other units of the same level */
+    private AllocationUnit getDisjointUnit(Disk disk) {
+        switch (maxDisjointLevel) {
+            case Rack.LEVEL:
+                return disk.rack;
+            case Chassis.LEVEL:
+                return disk.chassis;
+            case Host.LEVEL:
+                return disk.host;
+            default:
+                return disk;
+        }
+    }
+}
@@ -54,7 +54,7 @@ public class InitialProp extends Propagator<Variable> {
 
     @Override
     public void propagate(int evtmask) throws ContradictionException {
-        if(done || latestAllocation.locationToPartitionMap.isEmpty()) return;
+        if(done || latestAllocation.isEmpty()) return;
 
         System.out.println("Initial propagator called");
 
@@ -115,6 +115,8 @@ public class InitialProp extends Propagator<Variable> {
                         partitionToDiskListMap.get(partition).remove(diskOverlap);
                         diskToPartitionMap.get(diskOverlap).remove(partition);
                         overlaps = true;
+                        // The list was modified, stop where its iterator used to end or fail
+                        break;
                     }
                 }
             }
@@ -213,6 +215,8 @@ public class InitialProp extends Propagator<Variable> {
 
                         for(Disk di: piN1) {
                             if(p1N3.contains(di)) continue;
+                            // Constant out of a localized re-solve
+                            if(!context.isFree(di)) continue;
 
                             if(piN1.stream().filter(dj -> dj != di).anyMatch(dj -> d1Disjoint.contains(dj))) continue;
 
@@ -0,0 +1,158 @@
+package allocator;
+
+import topology.AllocationUnit;
+
+import java.util.*;
+
+/**
+ * Number of partitions shared by every k-tuple of allocation units, built from the replicas of each partition.
+ *
+ * A partition only contributes to the tuples made of the units holding it, so the tuples are found by going
+ * through the partitions once instead of intersecting every combination of units. The size of an intersection
+ * counts the partitions of the first unit of the tuple, duplicates included.
+ */
+public class IntersectionStatistics<T extends AllocationUnit> {
+
+    final List<T> unitList;
+    final int k;
+
+    // Tuples sharing at least one partition, encoded by encode(), and the size of their intersection
+    final Map<Long, Integer> tupleIntersectionSize = new HashMap<>();
+
+    // Number of units holding at least one partition
+    int nbHoldingUnits;
+
+    // Distinct units of the partition being added, with their number of replicas
+    int[] units = new int[Context.REPLICATION_FACTOR];
+    int[] counts = new int[Context.REPLICATION_FACTOR];
+    final int[] tuple;
+    int firstIndex;
+
+    /* UNITLIST gives the position of each unit in the tuples, K must be at most 3 to fit the encoding */
+    IntersectionStatistics(List<T> unitList, int k) {
+        if (k < 1 || k > 3) {
+            throw new IllegalArgumentException("Tuples of " + k + " units are not supported");
+        }
+        this.unitList = unitList;
+        this.k = k;
+        this.tuple = new int[k];
+    }
+
+    /* Adds a partition held by the units at the first SIZE positions of REPLICAUNITS, in any order */
+    void addPartition(int[] replicaUnits, int size) {
+        int[] sorted = Arrays.copyOf(replicaUnits, size);
+        Arrays.sort(sorted);
+
+        if (units.length < size) {
+            units = new int[size];
+            counts = new int[size];
+        }
+        int nbUnits = 0;
+        for (int i = 0; i < size; i++) {
+            if (nbUnits > 0 && units[nbUnits - 1] == sorted[i]) {
+                counts[nbUnits - 1]++;
+            } else {
+                units[nbUnits] = sorted[i];
+                counts[nbUnits] = 1;
+                nbUnits++;
+            }
+        }
+        addTuples(nbUnits, 0, 0);
+    }
+
+    private void addTuples(int nbUnits, int from, int depth) {
+        if (depth == k) {
+            tupleIntersectionSize.merge(encode(tuple), counts[firstIndex], Integer::sum);
+            return;
+        }
+        for (int i = from; i <= nbUnits - (k - depth); i++) {
+            if (depth == 0) firstIndex = i;
+            tuple[depth] = units[i];
+            addTuples(nbUnits, i + 1, depth + 1);
+        }
+    }
+
+    /* Sorted tuples are encoded in base unitList.size() with the last unit as the most significant digit, so the
+       order of the codes is the colexicographic order in which commons-math Combinations enumerates them */
+    private long encode(int[] tuple) {
+        long code = 0;
+        for (int i = k - 1; i >= 0; i--) {
+            code = code * unitList.size() + tuple[i];
+        }
+        return code;
+    }
+
+    private String name(long code) {
+        String[] names = new String[k];
+        for (int i = 0; i < k; i++) {
+            names[i] = unitList.get((int) (code % unitList.size())).name;
+            code /= unitList.size();
+        }
+        return String.join("_", names);
+    }
+
+    /* Statistics are meaningless when there are less than k units to pick from */
+    public boolean isEmpty() {
+        return nbHoldingUnits < k;
+    }
+
+    /* Tuple name to intersection size, the tuples being inserted in order */
+    public Map<String, Integer> getIntersectionSizes() {
+        Map<String, Integer> intersectionSizes = new HashMap<>();
+        tupleIntersectionSize.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> intersectionSizes.put(name(e.getKey()), e.getValue()));
+        return intersectionSizes;
+    }
+
+    /* Number of tuples for each intersection size, counted in the iteration order of getIntersectionSizes() */
+    public Map<Integer, Long> getIntersectionLoad() {
+        Map<Integer, Long> intersectionLoad = new HashMap<>();
+        for (int size: getIntersectionSizes().values()) {
+            intersectionLoad.merge(size, 1L, Long::sum);
+        }
+        return intersectionLoad;
+    }
+
+    /* Adds the intersections of OTHER, built on other partitions of the same units */
+    public IntersectionStatistics<T> merge(IntersectionStatistics<T> other) {
+        other.tupleIntersectionSize.forEach((code, size) -> tupleIntersectionSize.merge(code, size, Integer::sum));
+        return this;
+    }
+
+    public static <T extends AllocationUnit> IntersectionStatistics<T> of(AllocationIndex.Level<T> level, int[] partitionOrder, int k) {
+        return of(level, partitionOrder, 0, partitionOrder.length, k);
+    }
+
+    /* Statistics of the partitions partitionOrder[from] .. partitionOrder[to - 1] */
+    public static <T extends AllocationUnit> IntersectionStatistics<T> of(AllocationIndex.Level<T> level, int[] partitionOrder, int from, int to, int k) {
+        IntersectionStatistics<T> statistics = new IntersectionStatistics<>(level.unitList, k);
+        statistics.nbHoldingUnits = level.getHoldingUnitCount();
+        int[] replicaUnits = new int[Context.REPLICATION_FACTOR];
+        for (int i = from; i < to; i++) {
+            int partition = partitionOrder[i];
+            int size = level.getUnitCount(partition);
+            if (replicaUnits.length < size) replicaUnits = new int[size];
+            for (int j = 0; j < size; j++) {
+                replicaUnits[j] = level.getUnit(partition, j).globalIndex;
+            }
+            statistics.addPartition(replicaUnits, size);
+        }
+        return statistics;
+    }
+
+    public static <T extends AllocationUnit, C extends Collection<Integer>> IntersectionStatistics<T> of(Map<T, C> unitToPartitionListMap, int k) {
+        List<T> unitList = new ArrayList<>(unitToPartitionListMap.keySet());
+        IntersectionStatistics<T> statistics = new IntersectionStatistics<>(unitList, k);
+        statistics.nbHoldingUnits = unitList.size();
+
+        Map<Integer, List<Integer>> partitionToUnitListMap = new HashMap<>();
+        for (int u = 0; u < unitList.size(); u++) {
+            for (Integer partition: unitToPartitionListMap.get(unitList.get(u))) {
+                Util.getOrCreateList(partitionToUnitListMap, partition).add(u);
+            }
+        }
+        partitionToUnitListMap.values().forEach(l -> statistics.addPartition(Util.listToArray(l), l.size()));
+        return statistics;
+    }
+}
@@ -1,22 +1,26 @@
 package allocator;
 
+import org.chocosolver.memory.IEnvironment;
+import org.chocosolver.memory.IStateBitSet;
+import org.chocosolver.memory.IStateIntVector;
 import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.constraints.Propagator;
 import org.chocosolver.solver.constraints.PropagatorPriority;
 import org.chocosolver.solver.exception.ContradictionException;
-import org.chocosolver.solver.search.loop.monitors.IMonitorRestart;
 import org.chocosolver.solver.variables.SetVar;
 import org.chocosolver.solver.variables.delta.ISetDeltaMonitor;
 import org.chocosolver.solver.variables.events.SetEventType;
 import org.chocosolver.util.ESat;
+import org.chocosolver.util.procedure.IntProcedure;
 import topology.Disk;
 import topology.Zone;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Propagator to ensure that variables from VARS do not overlap on more than OVERLAP value.
+ *
+ * All the state is stored in the environment of the model, so it is restored on backtrack and restart.
  */
 class MinOverlap extends Propagator<SetVar> {
 
@@ -30,11 +34,23 @@ class MinOverlap extends Propagator<SetVar> {
     final Map<SetVar, Disk> setVarToDiskMap = new LinkedHashMap<>();
     final List<ISetDeltaMonitor> sdm = new ArrayList<>();
 
-    Map<Disk, Set<Disk>> alreadyClashingLocations = new LinkedHashMap<>();
-    Map<Integer, Set<Disk>> alreadyClashingPartitions = new LinkedHashMap<>();
-    Map<Integer, Set<Disk>> alreadyFulfilledPartitions = new LinkedHashMap<>();
+    final int nbDisks;
+    final int firstPartition;
+    final int nbPartitions;
 
-    boolean restart = false;
+    // Disk x disk clash matrix. Bit d * nbDisks + e is set when disk d clashes with disk e
+    final IStateBitSet alreadyClashingLocations;
+    // Disks holding each partition. Partition p owns the REPLICATION_FACTOR slots starting at p * REPLICATION_FACTOR,
+    // only the first partitionReplicaCount[p] slots are valid. ReplicaCount removes a fulfilled partition elsewhere.
+    final int[] alreadyClashingPartitions;
+    final IStateIntVector partitionReplicaCount;
+    // Disk x disk counters of the partitions forced on both disks, i.e. the size of the intersection of their LBs
+    final IStateIntVector overlapCount;
+
+    // Reused on every event to avoid allocations in the propagation loop
+    int[] scratch = new int[0];
+    int currentIdxVarInProp;
+    final IntProcedure elementForcedProcedure = val -> elementForced(currentIdxVarInProp, val);
 
     public MinOverlap(SetVar[] vars, int overlap, Context context){
         super(vars, PropagatorPriority.LINEAR, true);
@@ -49,41 +65,24 @@ class MinOverlap extends Propagator<SetVar> {
             SetVar setVar = vars[disk.globalIndex];
             setVarToDiskMap.put(setVar, disk);
             sdm.add(setVar.monitorDelta(this));
-
-            alreadyClashingLocations.put(disk, new LinkedHashSet<>());
         }
 
-        for(int partition: domain) {
-            alreadyClashingPartitions.put(partition, new LinkedHashSet<>());
-        }
-
-        model.getSolver().plugMonitor(new IMonitorRestart() {
-            @Override
-            public void beforeRestart() {
-                System.out.println("Reset Minimum Overlap propagator");
-                restart = true;
-            }
+        IEnvironment environment = model.getEnvironment();
 
-        });
+        nbDisks = zone.diskList.size();
+        alreadyClashingLocations = environment.makeBitSet(nbDisks * nbDisks);
+        overlapCount = environment.makeIntVector(nbDisks * nbDisks, 0);
 
+        firstPartition = domain.isEmpty() ? 0 : domain.get(0);
+        nbPartitions = domain.size();
+        alreadyClashingPartitions = new int[nbPartitions * Context.REPLICATION_FACTOR];
+        partitionReplicaCount = environment.makeIntVector(nbPartitions, 0);
     }
 
     public static Constraint createConstraint(SetVar[] vars, int overlap, Context context) {
         return new Constraint(NAME, new MinOverlap(vars, overlap, context));
     }
 
-    public void reset() {
-        for(Disk disk: zone.diskList) {
-            alreadyClashingLocations.get(disk).clear();
-        }
-
-        for(int partition: domain) {
-            alreadyClashingPartitions.put(partition, new LinkedHashSet<>());
-        }
-
-        alreadyFulfilledPartitions.clear();
-    }
-
     public SetVar diskToSetVar(Disk disk) {
         return vars[disk.globalIndex];
     }
@@ -92,61 +91,89 @@ class MinOverlap extends Propagator<SetVar> {
         return setVarToDiskMap.get(setVar);
     }
 
-    @Override
-    public void propagate(int mask) throws ContradictionException {
-        if(restart) {
-            reset();
-            restart = false;
-        }
-
-        //printStats();
-        alreadyClashingPartitions.forEach((partition, disks) -> {
-            List<Disk> otherDisks = new ArrayList<>(disks);
-            for(Disk disk: disks) {
-                otherDisks.remove(disk);
-                alreadyClashingLocations.get(disk).addAll(otherDisks);
-                otherDisks.add(disk);
-            }
+    /* Returns the partition offset of val or -1 if val is outside the partition domain */
+    private int partitionIndex(int val) {
+        int p = val - firstPartition;
+        return (p >= 0 && p < nbPartitions) ? p : -1;
+    }
 
-            if (disks.size() == 3) {
-                alreadyFulfilledPartitions.put(partition, disks);
-            }
-        });
+    private boolean partitionContains(int p, int d) {
+        int base = p * Context.REPLICATION_FACTOR;
+        int count = partitionReplicaCount.quickGet(p);
+        for (int i = 0; i < count; i++) {
+            if (alreadyClashingPartitions[base + i] == d) return true;
+        }
+        return false;
+    }
 
-        alreadyFulfilledPartitions.forEach((partition, disks) -> {
-            alreadyClashingPartitions.remove(partition);
-        } );
+    private void incrementOverlap(int d1, int d2) {
+        int index = d1 * nbDisks + d2;
+        overlapCount.quickSet(index, overlapCount.quickGet(index) + 1);
+    }
 
+    @Override
+    public int getPropagationConditions(int vIdx) {
+        // Removed values cannot be part of the LB, only forced values change the state
+        return SetEventType.ADD_TO_KER.getMask();
+    }
 
-        for(SetVar setVar: vars) {
-            Disk disk = setVarToDisk(setVar);
-            Set<Integer> setVarLB = Util.isetToSet(setVar.getLB());
+    @Override
+    public void propagate(int mask) throws ContradictionException {
+        // Disks out of a localized re-solve are constants which never notify their partitions, so the state is rebuilt
+        // from the LB of every disk. The counts below already hold the pending events
+        for(int b = alreadyClashingLocations.nextSetBit(0); b >= 0; b = alreadyClashingLocations.nextSetBit(b + 1)) {
+            alreadyClashingLocations.clear(b);
+            overlapCount.quickSet(b, 0);
+        }
+        for(int p = 0; p < nbPartitions; p++) {
+            partitionReplicaCount.quickSet(p, 0);
+        }
+        for(ISetDeltaMonitor monitor: sdm) {
+            monitor.freeze();
+            monitor.unfreeze();
+        }
 
-            Set<Disk> clashingLocationsForLocation = alreadyClashingLocations.get(disk);
-            for(Disk clashingDisk: clashingLocationsForLocation) {
-                SetVar clashingDiskVar = diskToSetVar(clashingDisk);
-                for(int val: setVarLB) {
-                    Set<Disk> disksWithVal = alreadyClashingPartitions.getOrDefault(val, alreadyFulfilledPartitions.get(val));
-                    if(!disksWithVal.contains(clashingDisk)) {
-                        clashingDiskVar.remove(val, this);
-                    }
+        for(int d = 0; d < vars.length; d++) {
+            SetVar setVar = vars[d];
+            int row = d * nbDisks;
+            for(int val: setVar.getLB()) {
+                int p = partitionIndex(val);
+                if(p < 0 || partitionReplicaCount.quickGet(p) == Context.REPLICATION_FACTOR) {
+                    throw new ContradictionException().set(this, setVar, "Val " + val + " is already located to 3 locations");
+                }
+                int base = p * Context.REPLICATION_FACTOR;
+                int count = partitionReplicaCount.quickGet(p);
+                for(int i = 0; i < count; i++) {
+                    int e = alreadyClashingPartitions[base + i];
+                    alreadyClashingLocations.set(row + e);
+                    alreadyClashingLocations.set(e * nbDisks + d);
+                    incrementOverlap(d, e);
+                    incrementOverlap(e, d);
                 }
+                alreadyClashingPartitions[base + count] = d;
+                partitionReplicaCount.quickSet(p, count + 1);
             }
         }
 
+        // Disks at the overlap cannot take any other partition of each other
+        for(int b = alreadyClashingLocations.nextSetBit(0); b >= 0; b = alreadyClashingLocations.nextSetBit(b + 1)) {
+            int d = b / nbDisks;
+            int e = b % nbDisks;
+            int intersection = overlapCount.quickGet(b);
+            if(intersection > overlap) {
+                throw new ContradictionException()
+                        .set(this, vars[d], "Intersection of " + zone.diskList.get(d) + " with " + zone.diskList.get(e) + " contains: " + intersection);
+            } else if(intersection == overlap) {
+                removeDifference(vars[d], vars[e], vars[d]);
+            }
+        }
     }
 
     @Override
     public void propagate(int idxVarInProp, int mask) throws ContradictionException {
-
-        if(restart) {
-            reset();
-            restart = false;
-        }
-
+        currentIdxVarInProp = idxVarInProp;
         sdm.get(idxVarInProp).freeze();
-        sdm.get(idxVarInProp).forEach(val -> this.elementRemoved(idxVarInProp, val), SetEventType.REMOVE_FROM_ENVELOPE);
-        sdm.get(idxVarInProp).forEach(val -> this.elementForced(idxVarInProp, val), SetEventType.ADD_TO_KER);
+        sdm.get(idxVarInProp).forEach(elementForcedProcedure, SetEventType.ADD_TO_KER);
         sdm.get(idxVarInProp).unfreeze();
     }
 
@@ -154,139 +181,91 @@ class MinOverlap extends Propagator<SetVar> {
 
         SetVar setVar = vars[idxVarInProp];
         Disk disk = zone.diskList.get(idxVarInProp);
+        int d = disk.globalIndex;
         //printStats();
 
-        Set<Disk> clashingLocationsForPartition = alreadyClashingPartitions.get(val);
-        Set<Disk> clashingLocationsForLocation = alreadyClashingLocations.get(disk);
+        int p = partitionIndex(val);
 
-        //System.out.println("Add: " + disk.name + ": " + val + ", location: " + clashingLocationsForLocation + ", partitions: " + clashingLocationsForPartition);
-        //System.out.println("Remaining partitions: " + allocator.Util.sequenceNum(alreadyClashingPartitions.keySet().stream().sorted().collect(Collectors.toList())));
+        //System.out.println("Add: " + disk.name + ": " + val);
 
-        if(clashingLocationsForPartition == null) {
-            System.out.println("Partition " + val + " not found in " + alreadyClashingPartitions);
+        // ReplicaCount may not have removed the partition yet when another disk takes it in the same propagation
+        if(p < 0 || partitionReplicaCount.quickGet(p) == Context.REPLICATION_FACTOR) {
+            System.out.println("Partition " + val + " is not available for allocation");
             throw new ContradictionException().set(this, setVar, "Val " + val + " is already located to 3 locations");
         }
 
-        Map<Disk, Set<Integer>> toRemove = new LinkedHashMap<>();
-
-        Set<Integer> setVarLB = Util.isetToSet(setVar.getLB());
-        setVarLB.remove(val);
-        for(Disk clashingDisk: clashingLocationsForLocation) {
-            if(clashingDisk == disk) continue;
+        int row = d * nbDisks;
+        for(int b = alreadyClashingLocations.nextSetBit(row); b >= 0 && b < row + nbDisks; b = alreadyClashingLocations.nextSetBit(b + 1)) {
+            int e = b - row;
+            if(e == d) continue;
 
-            SetVar clashingDiskVar = diskToSetVar(clashingDisk);
-            Set<Integer> clashingSetVarLB = Util.isetToSet(clashingDiskVar.getLB());
-
-            Set<Integer> intersection = new HashSet<>(clashingSetVarLB);
-            intersection.retainAll(setVarLB);
-            if(intersection.size() > overlap) {
+            // val is not counted yet, so the counter is the overlap of the LBs without val
+            int intersection = overlapCount.quickGet(row + e);
+            if(intersection > overlap) {
                 throw new ContradictionException()
-                        .set(this, setVar, "While adding " + val + " to " + disk + " intersection with " + clashingDisk + " contains: " + intersection);
-            } else if(intersection.size() == overlap) {
-                Util.getOrCreateSet(toRemove, clashingDisk).add(val);
+                        .set(this, setVar, "While adding " + val + " to " + disk + " intersection with " + zone.diskList.get(e) + " contains: " + intersection);
+            } else if(intersection == overlap) {
+                removeValue(vars[e], val, setVar);
             }
         }
 
-        for (Disk clashingDisk: clashingLocationsForPartition) {
-            alreadyClashingLocations.get(clashingDisk).add(disk);
-
-            SetVar clashingDiskVar = diskToSetVar(clashingDisk);
-            Set<Integer> clashingSetVarLB = Util.isetToSet(clashingDiskVar.getLB());
-            clashingSetVarLB.remove(val);
+        int base = p * Context.REPLICATION_FACTOR;
+        int count = partitionReplicaCount.quickGet(p);
+        for (int i = 0; i < count; i++) {
+            int e = alreadyClashingPartitions[base + i];
 
-            Set<Integer> intersection = new HashSet<>(clashingSetVarLB);
-            intersection.retainAll(setVarLB);
-            if(intersection.size() >= overlap) {
+            int intersection = overlapCount.quickGet(row + e);
+            if(intersection >= overlap) {
                 throw new ContradictionException()
-                        .set(this, setVar, "While adding " + val + " to " + disk + " intersection with " + clashingDisk + " is already overlapping: " + intersection);
-            } else if(intersection.size() == overlap - 1) {
-                Util.getOrCreateSet(toRemove, clashingDisk).addAll(setVarLB.stream()
-                        .filter(i -> !intersection.contains(i)).collect(Collectors.toList()));
-                Util.getOrCreateSet(toRemove, disk).addAll(clashingSetVarLB.stream()
-                        .filter(i -> !intersection.contains(i)).collect(Collectors.toList()));
-            }
-        }
-
-        clashingLocationsForLocation.addAll(clashingLocationsForPartition);
-        clashingLocationsForPartition.add(disk);
-
-        if (clashingLocationsForPartition.size() == 3) {
-            Set<Disk> disks = alreadyClashingPartitions.remove(val);
-            alreadyFulfilledPartitions.put(val, disks);
-
-            for(Disk d: zone.diskList) {
-                SetVar s = vars[d.globalIndex];
-                if(!disks.contains(d)) {
-                    if(s.getLB().contains(val)) {
-                        throw new ContradictionException()
-                                .set(this, setVar, "While adding " + val + " to " + disk + " found extra in " + d + " + " + disks);
-                    }
-
-                    Util.getOrCreateSet(toRemove, d).add(val);
-                }
+                        .set(this, setVar, "While adding " + val + " to " + disk + " intersection with " + zone.diskList.get(e) + " is already overlapping: " + intersection);
+            } else if(intersection == overlap - 1) {
+                // Disks are about to reach the overlap: each one must not take any other partition of the other
+                removeDifference(vars[d], vars[e], val, setVar);
+                removeDifference(vars[e], vars[d], val, setVar);
             }
         }
 
-        for(Map.Entry<Disk, Set<Integer>> e: toRemove.entrySet()) {
-            SetVar s = vars[e.getKey().globalIndex];
-            for(int v: e.getValue()) {
-                try {
-                    //System.out.println("Removing: " + v + " from " + s.getName());
-                    s.remove(v, this);
-                } catch (ContradictionException cex) {
-                    System.out.println("Contradiction on " + cex.v + " on removing "
-                            + v + " inside " + setVar + " adding val: " + val);
-                    throw cex;
-                }
-            }
+        for (int i = 0; i < count; i++) {
+            int e = alreadyClashingPartitions[base + i];
+            alreadyClashingLocations.set(row + e);
+            alreadyClashingLocations.set(e * nbDisks + d);
+            incrementOverlap(d, e);
+            incrementOverlap(e, d);
         }
+        // Slots above the count are free: on backtrack the count is restored and they get overwritten
+        alreadyClashingPartitions[base + count] = d;
+        partitionReplicaCount.quickSet(p, count + 1);
     }
 
-    public void elementRemoved(int idxVarInProp, int val) throws ContradictionException {
-
-        SetVar setVar = vars[idxVarInProp];
-        Disk disk = zone.diskList.get(idxVarInProp);
-        //printStats();
-
-        Set<Disk> clashingLocationsForPartition = alreadyClashingPartitions.get(val);
-        Set<Disk> clashingLocationsForLocation = alreadyClashingLocations.get(disk);
-
-        if(clashingLocationsForPartition == null) {
-            clashingLocationsForPartition = alreadyFulfilledPartitions.remove(val);
-            alreadyClashingPartitions.put(val, clashingLocationsForPartition);
+    /* Removes from TO every value of the LB of FROM that TO does not already hold */
+    private void removeDifference(SetVar from, SetVar to, SetVar cause) throws ContradictionException {
+        scratch = Util.growBuffer(scratch, from.getLB().size());
+        int size = Util.difference(from.getLB(), to.getLB(), scratch);
+        for(int i = 0; i < size; i++) {
+            removeValue(to, scratch[i], cause);
         }
+    }
 
-        if(!clashingLocationsForPartition.contains(disk)) {
-            return;
-        }
-
-        //System.out.println("Rem: " + disk.name + ": " + val);
-
-        clashingLocationsForPartition.remove(disk);
-        clashingLocationsForLocation.removeAll(clashingLocationsForPartition);
-
-        Set<Integer> setVarLB = Util.isetToSet(setVar.getLB());
-        setVarLB.remove(val);
-        for (Disk clashingDisk: clashingLocationsForPartition) {
-            alreadyClashingLocations.get(clashingDisk).remove(disk);
-
-            SetVar clashingDiskVar = vars[clashingDisk.globalIndex];
-            Set<Integer> clashingSetVarLB = Util.isetToSet(clashingDiskVar.getLB());
-            clashingSetVarLB.remove(val);
-
-            Set<Integer> intersection = new HashSet<>(clashingSetVarLB);
-            intersection.retainAll(setVarLB);
-            if(!intersection.isEmpty()) {
-                throw new ContradictionException()
-                        .set(this, setVar, "Intersection of " + setVar + " and " + clashingDiskVar + " is not empty: " + intersection);
+    /* Removes from TO every value of the LB of FROM (except val) that TO does not already hold */
+    private void removeDifference(SetVar from, SetVar to, int val, SetVar cause) throws ContradictionException {
+        scratch = Util.growBuffer(scratch, from.getLB().size());
+        int size = Util.difference(from.getLB(), to.getLB(), scratch);
+        for(int i = 0; i < size; i++) {
+            if(scratch[i] != val) {
+                removeValue(to, scratch[i], cause);
             }
         }
+    }
 
-        //System.out.println("Remaining partitions: " + allocator.Util.sequenceNum(alreadyClashingPartitions.keySet().stream().sorted().collect(Collectors.toList())));
-
-        //System.out.println("Exit  Rem: " + disk.name + ": " + val);
-        //System.out.println("Clashing locations for " + disk.name + ": " + clashingLocationsForLocation);
-        //printStats();
+    private void removeValue(SetVar s, int v, SetVar cause) throws ContradictionException {
+        try {
+            //System.out.println("Removing: " + v + " from " + s.getName());
+            s.remove(v, this);
+        } catch (ContradictionException cex) {
+            System.out.println("Contradiction on " + cex.v + " on removing "
+                    + v + " inside " + s + " while updating " + cause);
+            throw cex;
+        }
     }
 
     @Override
@@ -297,16 +276,22 @@ class MinOverlap extends Propagator<SetVar> {
     /* Print stats during propagation loop. Caution: May slowdown performance on large allocation */
     public void printStats() {
 
-        int constraintSize = alreadyClashingLocations.values().stream()
-                .mapToInt(disks -> disks.size())
-                .sum();
-
-        int depth = alreadyClashingPartitions.values().stream()
-                .mapToInt(disks -> disks.size())
-                .sum();
-        depth+= 3 * alreadyFulfilledPartitions.size();
+        int constraintSize = alreadyClashingLocations.cardinality();
+
+        int remaining = 0;
+        int done = 0;
+        int depth = 0;
+        for(int p = 0; p < nbPartitions; p++) {
+            int count = partitionReplicaCount.quickGet(p);
+            if(count == Context.REPLICATION_FACTOR) {
+                done++;
+            } else {
+                remaining++;
+            }
+            depth += count;
+        }
 
         System.out.format("%5d(remaining) + %5d(done) | Size: %5d Depth: %6d%n",
-                alreadyClashingPartitions.size(), alreadyFulfilledPartitions.size(), constraintSize, depth);
+                remaining, done, constraintSize, depth);
     }
 }
@@ -0,0 +1,57 @@
+package allocator;
+
+import org.chocosolver.solver.constraints.Constraint;
+import org.chocosolver.solver.constraints.Propagator;
+import org.chocosolver.solver.constraints.PropagatorPriority;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.SetVar;
+import org.chocosolver.util.ESat;
+import topology.Disk;
+import topology.Zone;
+
+import java.util.Set;
+
+/**
+ * Propagator forcing the partitions of the latest solution on every disk but the RELAXED ones, on the initial
+ * propagation of a model searching one neighbourhood of a large neighbourhood search.
+ */
+public class NeighbourhoodProp extends Propagator<SetVar> {
+
+    final static String NAME = "NEIGHBOURHOOD";
+
+    final Zone zone;
+    final Set<Disk> relaxed;
+    // Partitions of each disk in the latest solution, indexed by disk globalIndex
+    final int[][] values;
+
+    boolean done = false;
+
+    public NeighbourhoodProp(SetVar[] diskVars, Zone zone, Set<Disk> relaxed, int[][] values) {
+        super(diskVars, PropagatorPriority.LINEAR, false);
+        this.zone = zone;
+        this.relaxed = relaxed;
+        this.values = values;
+    }
+
+    public static Constraint createConstraint(SetVar[] diskVars, Zone zone, Set<Disk> relaxed, int[][] values) {
+        return new Constraint(NAME, new NeighbourhoodProp(diskVars, zone, relaxed, values));
+    }
+
+    @Override
+    public void propagate(int evtmask) throws ContradictionException {
+        if (done) return;
+
+        for (Disk disk: zone.diskList) {
+            if (relaxed.contains(disk)) continue;
+            for (int partition: values[disk.globalIndex]) {
+                vars[disk.globalIndex].force(partition, this);
+            }
+        }
+        done = true;
+    }
+
+    @Override
+    public ESat isEntailed() {
+        return ESat.UNDEFINED;
+    }
+}
@@ -0,0 +1,79 @@
+package allocator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Builds and solves one allocator per search configuration on its own thread. The first one to find a solution
+ * wins and the others are stopped.
+ *
+ * A single configuration is solved on the calling thread.
+ */
+public class Portfolio {
+
+    final List<SearchConfiguration> configurations;
+    final ExecutorService executor;
+
+    public Portfolio(List<SearchConfiguration> configurations) {
+        this.configurations = configurations;
+        this.executor = configurations.size() > 1 ? Executors.newFixedThreadPool(configurations.size(), runnable -> {
+            Thread thread = new Thread(runnable, "portfolio");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /* Returns the allocator of the first solution, else the unsolved allocator of the first configuration */
+    public Allocator solve(Function<SearchConfiguration, Allocator> allocatorFactory) {
+        if (executor == null) {
+            Allocator allocator = allocatorFactory.apply(configurations.get(0));
+            allocator.solve();
+            return allocator;
+        }
+
+        AtomicReferenceArray<Allocator> allocators = new AtomicReferenceArray<>(configurations.size());
+        AtomicReference<Allocator> winner = new AtomicReference<>();
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < configurations.size(); i++) {
+            int index = i;
+            tasks.add(() -> {
+                Allocator allocator = allocatorFactory.apply(configurations.get(index));
+                allocators.set(index, allocator);
+                // Either this sees the winner, or the winner sees this allocator
+                if (winner.get() != null) {
+                    allocator.shouldStop = true;
+                }
+                if (allocator.solve() && winner.compareAndSet(null, allocator)) {
+                    System.out.println("Portfolio solution found with: " + allocator.configuration);
+                    for (int j = 0; j < allocators.length(); j++) {
+                        Allocator other = allocators.get(j);
+                        if (other != null && other != allocator) other.shouldStop = true;
+                    }
+                }
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> future: executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while solving the portfolio", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Portfolio model failed", e.getCause());
+        }
+
+        return winner.get() != null ? winner.get() : allocators.get(0);
+    }
+
+    public void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+}
@@ -0,0 +1,122 @@
+package allocator;
+
+import topology.Disk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Relaxations tried when no allocation is found: the disjoint level goes down from rack to disk, then the disk
+ * overlap is raised up to MAX_OVERLAP.
+ *
+ * solve() tries the rungs concurrently on a bounded pool. The strictest rung finding an allocation wins, the looser
+ * ones being stopped as soon as a stricter one succeeds.
+ */
+public class RelaxationLadder {
+
+    static final int MAX_OVERLAP = 2;
+
+    // Models built for a rung before giving up on it, the first one updating the frozen disks of the second one
+    static final int ATTEMPTS = 2;
+
+    public static class Rung {
+        final int overlap;
+        final int maxDisjointLevel;
+        final int startObjective;
+        final List<Disk> frozenVars;
+
+        volatile Allocator allocator;
+        int nbSolves;
+
+        Rung(int overlap, int maxDisjointLevel, int startObjective, List<Disk> frozenVars) {
+            this.overlap = overlap;
+            this.maxDisjointLevel = maxDisjointLevel;
+            this.startObjective = startObjective;
+            this.frozenVars = frozenVars;
+        }
+
+        @Override
+        public String toString() {
+            return overlap + "-" + maxDisjointLevel;
+        }
+    }
+
+    /* Rungs looser than the given one, strictest first. A new disjoint level starts from scratch */
+    public static List<Rung> looserRungs(int overlap, int maxDisjointLevel, int latestObjective, List<Disk> frozenVars) {
+        List<Rung> rungs = new ArrayList<>();
+        while (true) {
+            if (maxDisjointLevel < Disk.LEVEL) {
+                maxDisjointLevel++;
+                latestObjective = 0;
+                frozenVars = new ArrayList<>();
+            } else {
+                overlap++;
+                latestObjective--;
+            }
+            if (overlap > MAX_OVERLAP) {
+                return rungs;
+            }
+            rungs.add(new Rung(overlap, maxDisjointLevel, latestObjective, frozenVars));
+        }
+    }
+
+    /* Returns the strictest rung with a solved allocator, or null when they all fail.
+       ALLOCATORFACTORY builds the allocator of a rung from the frozen disks to start with */
+    public static Rung solve(List<Rung> rungs, BiFunction<Rung, List<Disk>, Allocator> allocatorFactory) {
+        // Index of the strictest rung solved so far
+        AtomicInteger solvedIndex = new AtomicInteger(rungs.size());
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < rungs.size(); i++) {
+            int index = i;
+            Rung rung = rungs.get(i);
+            tasks.add(() -> {
+                List<Disk> frozenVars = rung.frozenVars;
+                for (int attempt = 0; attempt < ATTEMPTS && index < solvedIndex.get(); attempt++) {
+                    Allocator allocator = allocatorFactory.apply(rung, new ArrayList<>(frozenVars));
+                    rung.allocator = allocator;
+                    // Either this sees the stricter rung solved, or that rung sees this allocator
+                    if (index > solvedIndex.get()) {
+                        allocator.shouldStop = true;
+                    }
+                    rung.nbSolves++;
+                    if (allocator.solve()) {
+                        solvedIndex.accumulateAndGet(index, Math::min);
+                        for (int j = index + 1; j < rungs.size(); j++) {
+                            Allocator looser = rungs.get(j).allocator;
+                            if (looser != null) looser.shouldStop = true;
+                        }
+                        return null;
+                    }
+                    System.out.println("Failed with disk overlap: " + rung.overlap + " and disjoint on level: " + rung.maxDisjointLevel);
+                    frozenVars = allocator.frozenVars;
+                }
+                return null;
+            });
+        }
+
+        int nbThreads = Math.max(1, Math.min(rungs.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads, runnable -> {
+            Thread thread = new Thread(runnable, "relaxation-ladder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (Future<Void> future: executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while relaxing the allocation", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Relaxed model failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        return solvedIndex.get() < rungs.size() ? rungs.get(solvedIndex.get()) : null;
+    }
+}
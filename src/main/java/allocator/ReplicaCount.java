@@ -0,0 +1,171 @@
+package allocator;
+
+import org.chocosolver.memory.IEnvironment;
+import org.chocosolver.memory.IStateIntVector;
+import org.chocosolver.solver.constraints.Constraint;
+import org.chocosolver.solver.constraints.Propagator;
+import org.chocosolver.solver.constraints.PropagatorPriority;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.SetVar;
+import org.chocosolver.solver.variables.delta.ISetDeltaMonitor;
+import org.chocosolver.solver.variables.events.SetEventType;
+import org.chocosolver.util.ESat;
+import org.chocosolver.util.procedure.IntProcedure;
+
+import java.util.List;
+
+/**
+ * Propagator counting the replicas of each partition over the disks of VARS: a partition is removed from every other
+ * disk once REPLICATION_FACTOR disks hold it, and forced on its remaining candidate disks once only MINREPLICAS of
+ * them are left.
+ *
+ * MINREPLICAS follows from the lower bound of the objective, which cannot exceed the replicas allocated: every
+ * partition keeps at least REPLICATION_FACTOR minus the replicas the bound allows to miss.
+ *
+ * The counts are kept in trailed vectors, each event updating them in constant time.
+ */
+class ReplicaCount extends Propagator<SetVar> {
+
+    public static final String NAME = "REPLICACOUNT";
+
+    final int firstPartition;
+    final int nbPartitions;
+    final int minReplicas;
+
+    final ISetDeltaMonitor[] sdm;
+
+    // Disks holding each partition in their LB
+    final IStateIntVector kernelCount;
+    // Disks holding each partition in their UB
+    final IStateIntVector candidateCount;
+
+    int currentIdxVarInProp;
+    final IntProcedure elementForcedProcedure = val -> elementForced(currentIdxVarInProp, val);
+    final IntProcedure elementRemovedProcedure = val -> elementRemoved(currentIdxVarInProp, val);
+
+    public ReplicaCount(SetVar[] vars, int minObjective, Context context) {
+        super(vars, PropagatorPriority.LINEAR, true);
+
+        List<Integer> domain = context.allocation.partitionList;
+        firstPartition = domain.isEmpty() ? 0 : domain.get(0);
+        nbPartitions = domain.size();
+        int missingReplicas = Math.max(0, nbPartitions * Context.REPLICATION_FACTOR - minObjective);
+        minReplicas = Math.max(0, Context.REPLICATION_FACTOR - missingReplicas);
+
+        sdm = new ISetDeltaMonitor[vars.length];
+        for (int d = 0; d < vars.length; d++) {
+            sdm[d] = vars[d].monitorDelta(this);
+        }
+
+        IEnvironment environment = model.getEnvironment();
+        kernelCount = environment.makeIntVector(nbPartitions, 0);
+        candidateCount = environment.makeIntVector(nbPartitions, 0);
+    }
+
+    public static Constraint createConstraint(SetVar[] vars, int minObjective, Context context) {
+        return new Constraint(NAME, new ReplicaCount(vars, minObjective, context));
+    }
+
+    /* Returns the partition offset of val or -1 if val is outside the partition domain */
+    private int partitionIndex(int val) {
+        int p = val - firstPartition;
+        return (p >= 0 && p < nbPartitions) ? p : -1;
+    }
+
+    @Override
+    public int getPropagationConditions(int vIdx) {
+        return SetEventType.ADD_TO_KER.getMask() | SetEventType.REMOVE_FROM_ENVELOPE.getMask();
+    }
+
+    @Override
+    public void propagate(int mask) throws ContradictionException {
+        for (int p = 0; p < nbPartitions; p++) {
+            kernelCount.quickSet(p, 0);
+            candidateCount.quickSet(p, 0);
+        }
+        for (SetVar var: vars) {
+            for (int val: var.getLB()) {
+                int p = partitionIndex(val);
+                if (p >= 0) kernelCount.quickSet(p, kernelCount.quickGet(p) + 1);
+            }
+            for (int val: var.getUB()) {
+                int p = partitionIndex(val);
+                if (p >= 0) candidateCount.quickSet(p, candidateCount.quickGet(p) + 1);
+            }
+        }
+        // The counts above already hold the pending events
+        for (ISetDeltaMonitor monitor: sdm) {
+            monitor.freeze();
+            monitor.unfreeze();
+        }
+
+        for (int p = 0; p < nbPartitions; p++) {
+            checkKernel(p, null);
+            checkCandidates(p, null);
+        }
+    }
+
+    @Override
+    public void propagate(int idxVarInProp, int mask) throws ContradictionException {
+        currentIdxVarInProp = idxVarInProp;
+        sdm[idxVarInProp].freeze();
+        sdm[idxVarInProp].forEach(elementForcedProcedure, SetEventType.ADD_TO_KER);
+        sdm[idxVarInProp].forEach(elementRemovedProcedure, SetEventType.REMOVE_FROM_ENVELOPE);
+        sdm[idxVarInProp].unfreeze();
+    }
+
+    private void elementForced(int idxVarInProp, int val) throws ContradictionException {
+        int p = partitionIndex(val);
+        if (p < 0) return;
+        kernelCount.quickSet(p, kernelCount.quickGet(p) + 1);
+        checkKernel(p, vars[idxVarInProp]);
+    }
+
+    private void elementRemoved(int idxVarInProp, int val) throws ContradictionException {
+        int p = partitionIndex(val);
+        if (p < 0) return;
+        candidateCount.quickSet(p, candidateCount.quickGet(p) - 1);
+        checkCandidates(p, vars[idxVarInProp]);
+    }
+
+    /* Removes partition P from the disks not holding it once fully replicated. Own removals are not notified back,
+       so the candidates are counted here */
+    private void checkKernel(int p, SetVar cause) throws ContradictionException {
+        int count = kernelCount.quickGet(p);
+        if (count > Context.REPLICATION_FACTOR) {
+            throw new ContradictionException().set(this, cause,
+                    "Partition " + (p + firstPartition) + " is located to " + count + " disks");
+        }
+        if (count < Context.REPLICATION_FACTOR || candidateCount.quickGet(p) == count) return;
+
+        int val = p + firstPartition;
+        for (SetVar var: vars) {
+            if (!var.getLB().contains(val) && var.remove(val, this)) {
+                candidateCount.quickSet(p, candidateCount.quickGet(p) - 1);
+            }
+        }
+    }
+
+    /* Forces partition P on its remaining candidates once they are just enough. Own additions are not notified back,
+       so the kernels are counted here */
+    private void checkCandidates(int p, SetVar cause) throws ContradictionException {
+        int count = candidateCount.quickGet(p);
+        if (count < minReplicas) {
+            throw new ContradictionException().set(this, cause,
+                    "Partition " + (p + firstPartition) + " has " + count + " candidate disks left");
+        }
+        if (count > minReplicas || kernelCount.quickGet(p) == count) return;
+
+        int val = p + firstPartition;
+        for (SetVar var: vars) {
+            if (var.getUB().contains(val) && var.force(val, this)) {
+                kernelCount.quickSet(p, kernelCount.quickGet(p) + 1);
+            }
+        }
+    }
+
+    @Override
+    public ESat isEntailed() {
+        return ESat.UNDEFINED;
+    }
+}
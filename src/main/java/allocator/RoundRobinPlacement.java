@@ -0,0 +1,133 @@
+package allocator;
+
+import topology.*;
+
+import java.util.*;
+
+/**
+ * Constructive allocation of a fresh zone, used as a warm start of the solver.
+ *
+ * The disks are laid out round-robin across the racks, then across the chassis of each rack, the hosts of each
+ * chassis and the disks of each host, so consecutive disks are in different racks when the hierarchy is uniform.
+ * The first replica of each partition goes to the next disk of that layout, and the other ones STRIDE disks apart.
+ * Within a pass over the layout, two disks STRIDE apart share two partitions and two disks 2 * STRIDE apart one.
+ * Each pass takes a new stride whose distances were not used yet, so two disks share at most two partitions, and
+ * whose multiples are not multiples of the number of racks so the replicas of a partition land on different racks.
+ *
+ * A disk which is full or breaks the disjoint level or the overlap limit is skipped for the next one of the layout.
+ */
+public class RoundRobinPlacement extends GreedyRepair {
+
+    // Disks in round-robin order of the hierarchy
+    final List<Disk> layout;
+    final int nbRacks;
+
+    // Position in the layout of the next first replica, and of the first replica of the current partition
+    int cursor;
+    int base;
+    int stride;
+    // Distances between the replicas of a partition used by the previous passes
+    final Set<Integer> usedDistances = new HashSet<>();
+
+    RoundRobinPlacement(Context context, int overlap, int maxDisjointLevel) {
+        super(context, overlap, maxDisjointLevel);
+        layout = interleave(zone);
+        nbRacks = zone.rackList.size();
+        stride = nextStride();
+    }
+
+    /* Places all the partitions of the empty allocation of CONTEXT on the strictest disjoint level possible,
+       returning null if the placement gets stuck on all of them */
+    public static RoundRobinPlacement place(Context context, int overlap) {
+        long start = System.nanoTime();
+        for (int maxDisjointLevel = Rack.LEVEL; maxDisjointLevel <= Disk.LEVEL; maxDisjointLevel++) {
+            RoundRobinPlacement placement = new RoundRobinPlacement(context, overlap, maxDisjointLevel);
+            if (placement.solve()) {
+                System.out.println("Round-robin placement of " + placement.nbPlaced + " replicas with disk overlap: " + overlap
+                        + " and disjoint on level: " + maxDisjointLevel + " in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+                return placement;
+            }
+            System.out.println("Round-robin placement stuck with disk overlap: " + overlap + " and disjoint on level: " + maxDisjointLevel);
+        }
+        return null;
+    }
+
+    /* Disks of UNIT taking in turn the next disk of each child */
+    static List<Disk> interleave(AllocationUnit unit) {
+        if (unit instanceof Disk) {
+            return List.of((Disk) unit);
+        }
+        List<List<Disk>> childLayouts = new ArrayList<>();
+        int nbDisks = 0;
+        for (AllocationUnit child: unit.childList) {
+            List<Disk> childLayout = interleave(child);
+            childLayouts.add(childLayout);
+            nbDisks += childLayout.size();
+        }
+        List<Disk> layout = new ArrayList<>(nbDisks);
+        for (int i = 0; layout.size() < nbDisks; i++) {
+            for (List<Disk> childLayout: childLayouts) {
+                if (i < childLayout.size()) layout.add(childLayout.get(i));
+            }
+        }
+        return layout;
+    }
+
+    /* Smallest stride keeping the replicas of a partition on different racks of a uniform zone, whose distances
+       between the replicas of a partition were not used by a previous pass */
+    private int nextStride() {
+        for (int s = 1; s < layout.size(); s++) {
+            if (nbRacks >= Context.REPLICATION_FACTOR && !spreadsRacks(s)) continue;
+
+            boolean unused = true;
+            for (int r = 1; r < Context.REPLICATION_FACTOR; r++) {
+                if (usedDistances.contains(getDistance(r * s))) unused = false;
+            }
+            if (!unused) continue;
+
+            for (int r = 1; r < Context.REPLICATION_FACTOR; r++) {
+                usedDistances.add(getDistance(r * s));
+            }
+            return s;
+        }
+        // Every distance was used, the overlap limit skipping the disks sharing too many partitions
+        return 1;
+    }
+
+    /* Distance between two positions OFFSET apart in the circular layout */
+    private int getDistance(int offset) {
+        int d = offset % layout.size();
+        return Math.min(d, layout.size() - d);
+    }
+
+    private boolean spreadsRacks(int s) {
+        for (int r = 1; r < Context.REPLICATION_FACTOR; r++) {
+            if ((r * s) % nbRacks == 0) return false;
+        }
+        return true;
+    }
+
+    @Override
+    Disk findDisk(int p) {
+        List<Disk> holders = partitionDisks.get(p);
+        int replica = holders.size();
+        int target = replica == 0 ? cursor : base + replica * stride;
+
+        for (int i = 0; i < layout.size(); i++) {
+            int position = (target + i) % layout.size();
+            Disk disk = layout.get(position);
+            if (!isValid(disk, holders)) continue;
+
+            if (replica == 0) {
+                base = position;
+                cursor = position + 1;
+                if (cursor >= layout.size()) {
+                    cursor -= layout.size();
+                    stride = nextStride();
+                }
+            }
+            return disk;
+        }
+        return null;
+    }
+}
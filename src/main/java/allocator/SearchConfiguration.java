@@ -0,0 +1,120 @@
+package allocator;
+
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.search.limits.FailCounter;
+import org.chocosolver.solver.search.strategy.selectors.values.SetDomainMin;
+import org.chocosolver.solver.search.strategy.selectors.values.SetValueSelector;
+import org.chocosolver.solver.variables.SetVar;
+
+import java.util.*;
+
+/**
+ * Search strategy of an allocator: order of the disks, order of the partitions added to a disk, and whether the
+ * search restarts after some failures instead of stopping at the first one.
+ *
+ * The frozen disks of the initial allocation are always decided first.
+ */
+public class SearchConfiguration {
+
+    public enum VariableOrder {
+        // Disk i of every host, then disk i + 1, ...
+        INTERLEAVED,
+        // Disks host after host, in zone order
+        ZONE,
+        SHUFFLED
+    }
+
+    public enum ValueOrder {
+        MIN,
+        ROUND_ROBIN,
+        RANDOM
+    }
+
+    // Failures allowed with restarts, the search stopping at the first failure otherwise
+    static final int RESTART_FAIL_LIMIT = 256;
+    static final int LUBY_SCALE = 8;
+    // Failures allowed to a kept model continuing from its latest solution in incremental mode
+    static final int INCREMENTAL_FAIL_LIMIT = RESTART_FAIL_LIMIT;
+
+    public static final SearchConfiguration DEFAULT = new SearchConfiguration(VariableOrder.INTERLEAVED, ValueOrder.MIN, 0, false);
+
+    // Variations of the default configuration used by a portfolio, in order
+    static final SearchConfiguration[] VARIATIONS = {
+            new SearchConfiguration(VariableOrder.ZONE, ValueOrder.MIN, 0, false),
+            new SearchConfiguration(VariableOrder.INTERLEAVED, ValueOrder.ROUND_ROBIN, 0, false),
+            new SearchConfiguration(VariableOrder.SHUFFLED, ValueOrder.MIN, 0, true),
+            new SearchConfiguration(VariableOrder.INTERLEAVED, ValueOrder.RANDOM, 0, true),
+            new SearchConfiguration(VariableOrder.ZONE, ValueOrder.ROUND_ROBIN, 0, true),
+            new SearchConfiguration(VariableOrder.SHUFFLED, ValueOrder.RANDOM, 0, true),
+            new SearchConfiguration(VariableOrder.INTERLEAVED, ValueOrder.MIN, 0, true),
+    };
+
+    final VariableOrder variableOrder;
+    final ValueOrder valueOrder;
+    final long seed;
+    final boolean restarts;
+
+    public SearchConfiguration(VariableOrder variableOrder, ValueOrder valueOrder, long seed, boolean restarts) {
+        this.variableOrder = variableOrder;
+        this.valueOrder = valueOrder;
+        this.seed = seed;
+        this.restarts = restarts;
+    }
+
+    /* The default configuration followed by SIZE - 1 variations, each one with its own seed */
+    public static List<SearchConfiguration> portfolio(int size, long seed) {
+        List<SearchConfiguration> configurations = new ArrayList<>();
+        configurations.add(DEFAULT);
+        for (int i = 1; i < size; i++) {
+            SearchConfiguration variation = VARIATIONS[(i - 1) % VARIATIONS.length];
+            configurations.add(new SearchConfiguration(variation.variableOrder, variation.valueOrder, seed + i, variation.restarts));
+        }
+        return configurations;
+    }
+
+    int getFailLimit() {
+        return restarts ? RESTART_FAIL_LIMIT : 1;
+    }
+
+    /* Order of the disk variables, INTERLEAVEDVARS holding them in INTERLEAVED order */
+    SetVar[] getVariables(SetVar[] interleavedVars, List<SetVar> diskVarList) {
+        switch (variableOrder) {
+            case ZONE:
+                return diskVarList.toArray(SetVar[]::new);
+            case SHUFFLED:
+                List<SetVar> shuffled = new ArrayList<>(diskVarList);
+                Collections.shuffle(shuffled, new Random(seed));
+                return shuffled.toArray(SetVar[]::new);
+            default:
+                return interleavedVars;
+        }
+    }
+
+    SetValueSelector getValueSelector(int[] partitions) {
+        switch (valueOrder) {
+            case ROUND_ROBIN:
+                return new SetDomainRoundRobin(partitions, seed);
+            case RANDOM:
+                return new SetDomainRandom(seed);
+            default:
+                return new SetDomainMin();
+        }
+    }
+
+    void configureRestarts(Model model) {
+        if (restarts) {
+            model.getSolver().setLubyRestart(LUBY_SCALE, new FailCounter(model, LUBY_SCALE), RESTART_FAIL_LIMIT);
+        }
+    }
+
+    /* Suffix of the files of a model, empty for the default configuration */
+    String getFileSuffix() {
+        return this == DEFAULT ? "" : "-" + this;
+    }
+
+    @Override
+    public String toString() {
+        return variableOrder.name().toLowerCase() + "-" + valueOrder.name().toLowerCase().replace('_', '-')
+                + "-" + seed + (restarts ? "-restarts" : "");
+    }
+}
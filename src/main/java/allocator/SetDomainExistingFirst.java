@@ -0,0 +1,31 @@
+package allocator;
+
+import org.chocosolver.solver.search.strategy.selectors.values.SetValueSelector;
+import org.chocosolver.solver.variables.SetVar;
+
+import java.util.Map;
+
+public class SetDomainExistingFirst implements SetValueSelector {
+    // Partitions of each disk variable in the existing allocation
+    final Map<SetVar, int[]> existing;
+
+    /* Values the disk held in the existing allocation are tried first, in order, then the smallest value */
+    public SetDomainExistingFirst(Map<SetVar, int[]> existing) {
+        this.existing = existing;
+    }
+
+    @Override
+    public int selectValue(SetVar var) {
+        for (int value: existing.getOrDefault(var, Allocator.EMPTY_VALUES)) {
+            if (var.getUB().contains(value) && !var.getLB().contains(value)) {
+                return value;
+            }
+        }
+        for (int value: var.getUB()) {
+            if (!var.getLB().contains(value)) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("No value to select for " + var);
+    }
+}
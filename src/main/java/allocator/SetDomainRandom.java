@@ -0,0 +1,28 @@
+package allocator;
+
+import org.chocosolver.solver.search.strategy.selectors.values.SetValueSelector;
+import org.chocosolver.solver.variables.SetVar;
+
+import java.util.*;
+
+public class SetDomainRandom implements SetValueSelector {
+
+    private final Random rand;
+
+    public SetDomainRandom(long seed) {
+        this.rand = new Random(seed);
+    }
+
+    /* Picks uniformly among the values of the upper bound not yet in the lower bound */
+    @Override
+    public int selectValue(SetVar v) {
+        int nbValues = v.getUB().size() - v.getLB().size();
+        int i = rand.nextInt(nbValues);
+        for (int value: v.getUB()) {
+            if (!v.getLB().contains(value) && i-- == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("No value to select for " + v);
+    }
+}
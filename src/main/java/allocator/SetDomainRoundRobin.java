@@ -0,0 +1,31 @@
+package allocator;
+
+import org.chocosolver.solver.search.strategy.selectors.values.SetValueSelector;
+import org.chocosolver.solver.variables.SetVar;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class SetDomainRoundRobin implements SetValueSelector {
+    List<Integer> domainList;
+
+    /* Values are tried in a shuffled order, a selected value moving to the back of the list */
+    public SetDomainRoundRobin(int[] domain, long seed) {
+        domainList = Arrays.stream(domain).boxed().collect(Collectors.toCollection(LinkedList::new));
+        Collections.shuffle(domainList, new Random(seed));
+    }
+
+    @Override
+    public int selectValue(SetVar var) {
+        Iterator<Integer> iterator = domainList.iterator();
+        while (iterator.hasNext()) {
+            int value = iterator.next();
+            if (var.getUB().contains(value) && !var.getLB().contains(value)) {
+                iterator.remove();
+                domainList.add(value);
+                return value;
+            }
+        }
+        throw new IllegalStateException("No value to select for " + var);
+    }
+}
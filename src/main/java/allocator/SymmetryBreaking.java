@@ -0,0 +1,113 @@
+package allocator;
+
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.Solver;
+import org.chocosolver.solver.search.strategy.Search;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.solver.variables.SetVar;
+import topology.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Symmetry breaking constraints of an allocator. Sibling disks, hosts or chassis with identical capacities, which the
+ * model starts empty and may freely fill, are interchangeable: swapping their partitions gives another solution.
+ * Within each such class, the non-empty units come first, ordered by their smallest partition.
+ */
+public class SymmetryBreaking {
+
+    final Allocator allocator;
+    final Model model;
+    // Min element variables of the ordered units, branched on last since an empty unit leaves its own free
+    final List<IntVar> minVarList = new ArrayList<>();
+
+    int nbDiskClasses = 0;
+    int nbHostClasses = 0;
+    int nbChassisClasses = 0;
+
+    SymmetryBreaking(Allocator allocator) {
+        this.allocator = allocator;
+        this.model = allocator.model;
+    }
+
+    /* Posts the ordering of every class of interchangeable units of the zone of ALLOCATOR */
+    public static SymmetryBreaking post(Allocator allocator) {
+        SymmetryBreaking symmetryBreaking = new SymmetryBreaking(allocator);
+        symmetryBreaking.postAll();
+        return symmetryBreaking;
+    }
+
+    void postAll() {
+        Zone zone = allocator.context.zone;
+        for (Host host: zone.hostList) {
+            nbDiskClasses += order(host.diskList, allocator.diskVarList);
+        }
+        for (Chassis chassis: zone.chassisList) {
+            nbHostClasses += order(chassis.hostList, allocator.hostVarList);
+        }
+        for (Rack rack: zone.rackList) {
+            nbChassisClasses += order(rack.chassisList, allocator.chassisVarList);
+        }
+
+        if (!minVarList.isEmpty()) {
+            Solver solver = model.getSolver();
+            solver.setSearch(solver.getSearch(), Search.inputOrderLBSearch(minVarList.toArray(IntVar[]::new)));
+        }
+        System.out.println("Symmetry classes: " + nbDiskClasses + " of disks, " + nbHostClasses + " of hosts, "
+                + nbChassisClasses + " of chassis");
+    }
+
+    /* Orders each class of interchangeable units among the siblings UNITS, of variables indexed by globalIndex in
+       VARLIST. Returns the number of classes */
+    <T extends AllocationUnit> int order(List<T> units, List<SetVar> varList) {
+        Map<List<Integer>, List<T>> classes = units.stream()
+                .filter(this::isInterchangeable)
+                .collect(Collectors.groupingBy(this::getSignature, LinkedHashMap::new, Collectors.toList()));
+
+        int nbClasses = 0;
+        for (List<T> unitClass: classes.values()) {
+            if (unitClass.size() < 2) continue;
+
+            // Lexicographic chain on (empty, min element), the empty units coming last
+            IntVar[][] keys = new IntVar[unitClass.size()][];
+            for (int i = 0; i < unitClass.size(); i++) {
+                SetVar var = varList.get(unitClass.get(i).globalIndex);
+                IntVar minVar = model.intVar(var.getName() + "-min", 0, allocator.partitions.length);
+                model.min(var, minVar, false).post();
+                minVarList.add(minVar);
+                keys[i] = new IntVar[]{model.arithm(var.getCard(), "=", 0).reify(), minVar};
+            }
+            model.lexChainLessEq(keys).post();
+            nbClasses++;
+        }
+        return nbClasses;
+    }
+
+    /* Whether every disk of UNIT is free, neither frozen nor holding partitions in the allocation the model starts from */
+    boolean isInterchangeable(AllocationUnit unit) {
+        return getDisks(unit).stream().allMatch(disk -> allocator.context.isFree(disk)
+                && !allocator.frozenVars.contains(disk)
+                && allocator.latestAllocation.getPartitions(disk).length == 0);
+    }
+
+    /* Capacity and move weight of each disk of UNIT, each host and chassis preceded by its number of children */
+    List<Integer> getSignature(AllocationUnit unit) {
+        List<Integer> signature = new ArrayList<>();
+        if (unit instanceof Disk) {
+            Disk disk = (Disk) unit;
+            signature.add(disk.capacity);
+            signature.add(allocator.context.getMoveWeight(disk));
+        } else {
+            signature.add(unit.childList.size());
+            unit.childList.forEach(child -> signature.addAll(getSignature(child)));
+        }
+        return signature;
+    }
+
+    static List<Disk> getDisks(AllocationUnit unit) {
+        if (unit instanceof Disk) return Collections.singletonList((Disk) unit);
+        if (unit instanceof Host) return ((Host) unit).diskList;
+        return ((Chassis) unit).diskList;
+    }
+}
@@ -0,0 +1,184 @@
+package allocator;
+
+import topology.Disk;
+import topology.Location;
+import topology.Zone;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Changes of a topology, read one per line ('#' starting a comment):
+ *
+ *   add-host <rack> <chassis> <host> <c1,c2..>  adds a host (and its rack and chassis if new), replacing its disks
+ *   remove <unit>                               removes a rack, chassis or host. A removed disk gets capacity 0,
+ *                                               the disks of its host keeping their names
+ *   resize <disk> <capacity>                    changes the capacity of a disk
+ *
+ * Once applied, getFreeDiskNames() gives the disks a localized re-solve may change: the failure domains of the
+ * touched disks, the disks with free locations, and the disks sharing partitions with them up to a bound. The
+ * other disks keep their partitions.
+ */
+public class TopologyDelta {
+
+    final List<String[]> operations = new ArrayList<>();
+
+    // Disks added, resized or removed by the applied operations
+    final Set<String> touchedDiskNames = new LinkedHashSet<>();
+
+    public static TopologyDelta read(String fileName) throws IOException {
+        TopologyDelta delta = new TopologyDelta();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                line = line.trim();
+                if (!line.isEmpty()) delta.add(line);
+            }
+        }
+        return delta;
+    }
+
+    public void add(String line) {
+        String[] words = line.trim().split("\\s+");
+        switch (words[0]) {
+            case "add-host":
+                checkArguments(words, 5);
+                break;
+            case "remove":
+                checkArguments(words, 2);
+                break;
+            case "resize":
+                checkArguments(words, 3);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown topology change: " + words[0]);
+        }
+        operations.add(words);
+    }
+
+    private static void checkArguments(String[] words, int size) {
+        if (words.length != size) {
+            throw new IllegalArgumentException(words[0] + " takes " + (size - 1) + " argument(s)");
+        }
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /* Applies the operations to the rack, chassis and host maps of TOPOLOGYDATA */
+    public void apply(Map<String, Map<String, Map<String, List<Integer>>>> topologyData) {
+        for (String[] words: operations) {
+            switch (words[0]) {
+                case "add-host":
+                    List<Integer> diskCapacities = new ArrayList<>();
+                    for (String capacity: words[4].split(",")) {
+                        diskCapacities.add(Integer.parseInt(capacity));
+                    }
+                    topologyData.computeIfAbsent(words[1], r -> new LinkedHashMap<>())
+                            .computeIfAbsent(words[2], c -> new LinkedHashMap<>())
+                            .put(words[3], diskCapacities);
+                    touchHost(words[3], diskCapacities);
+                    break;
+                case "remove":
+                    remove(topologyData, words[1]);
+                    break;
+                case "resize":
+                    setDiskCapacity(topologyData, words[1], Integer.parseInt(words[2]));
+                    break;
+            }
+        }
+    }
+
+    private void touchHost(String host, List<Integer> diskCapacities) {
+        for (int i = 0; i < diskCapacities.size(); i++) {
+            touchedDiskNames.add(host + "[" + (i + 1) + "]");
+        }
+    }
+
+    private void remove(Map<String, Map<String, Map<String, List<Integer>>>> topologyData, String name) {
+        if (name.endsWith("]")) {
+            setDiskCapacity(topologyData, name, 0);
+            return;
+        }
+        for (Iterator<Map<String, Map<String, List<Integer>>>> racks = topologyData.values().iterator(); racks.hasNext(); ) {
+            Map<String, Map<String, List<Integer>>> rackData = racks.next();
+            for (Iterator<Map<String, List<Integer>>> chassis = rackData.values().iterator(); chassis.hasNext(); ) {
+                Map<String, List<Integer>> chassisData = chassis.next();
+                if (chassisData.remove(name) != null) {
+                    if (chassisData.isEmpty()) chassis.remove();
+                    if (rackData.isEmpty()) racks.remove();
+                    return;
+                }
+            }
+            if (rackData.remove(name) != null) {
+                if (rackData.isEmpty()) racks.remove();
+                return;
+            }
+        }
+        if (topologyData.remove(name) == null) {
+            throw new IllegalArgumentException("No rack, chassis, host or disk named " + name);
+        }
+    }
+
+    /* DISKNAME is host[i], i starting at 1 */
+    private void setDiskCapacity(Map<String, Map<String, Map<String, List<Integer>>>> topologyData, String diskName, int capacity) {
+        int bracket = diskName.lastIndexOf('[');
+        if (bracket < 0 || !diskName.endsWith("]")) {
+            throw new IllegalArgumentException("Not a disk name: " + diskName);
+        }
+        String host = diskName.substring(0, bracket);
+        int index = Integer.parseInt(diskName.substring(bracket + 1, diskName.length() - 1)) - 1;
+        for (Map<String, Map<String, List<Integer>>> rackData: topologyData.values()) {
+            for (Map<String, List<Integer>> chassisData: rackData.values()) {
+                List<Integer> diskCapacities = chassisData.get(host);
+                if (diskCapacities != null && index >= 0 && index < diskCapacities.size()) {
+                    diskCapacities.set(index, capacity);
+                    touchedDiskNames.add(diskName);
+                    return;
+                }
+            }
+        }
+        throw new IllegalArgumentException("No disk named " + diskName);
+    }
+
+    /* Names of the disks of ZONE a localized re-solve of ALLOCATION may change, growing the neighbourhood of the
+       touched disks past MAXDISKS only to include all the failure domains and free locations */
+    public Set<String> getFreeDiskNames(Zone zone, Allocation allocation, int maxDisks) {
+        Set<Disk> freeDisks = new LinkedHashSet<>();
+        for (String name: touchedDiskNames) {
+            Disk disk = zone.getDiskFromName(name);
+            if (disk != null) freeDisks.addAll(disk.chassis.diskList);
+        }
+        for (Location location: allocation.unAllocatedLocationList) {
+            freeDisks.add(location.disk);
+        }
+
+        // Breadth first over the partitions to place: lost ones first, then those of the free disks
+        Map<Integer, List<Disk>> partitionToDiskListMap = allocation.getPartitionToDiskListMap();
+        Map<Disk, List<Integer>> diskToPartitionListMap = allocation.getDiskToPartitionListMap();
+        Deque<Integer> partitions = new ArrayDeque<>();
+        Set<Integer> visited = new HashSet<>();
+        allocation.overAllocatedPartitions.values().forEach(partitions::addAll);
+        for (Disk disk: freeDisks) {
+            partitions.addAll(diskToPartitionListMap.getOrDefault(disk, List.of()));
+        }
+        while (!partitions.isEmpty() && freeDisks.size() < maxDisks) {
+            Integer partition = partitions.poll();
+            if (!visited.add(partition)) continue;
+            for (Disk disk: partitionToDiskListMap.getOrDefault(partition, List.of())) {
+                if (freeDisks.size() >= maxDisks) break;
+                if (freeDisks.add(disk)) {
+                    partitions.addAll(diskToPartitionListMap.getOrDefault(disk, List.of()));
+                }
+            }
+        }
+
+        Set<String> freeDiskNames = new LinkedHashSet<>();
+        freeDisks.forEach(disk -> freeDiskNames.add(disk.name));
+        System.out.println("Localized re-solve on " + freeDiskNames.size() + " of " + zone.diskList.size() + " disks");
+        return freeDiskNames;
+    }
+}
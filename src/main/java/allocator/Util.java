@@ -19,6 +19,14 @@ public abstract class Util {
         return Arrays.stream(array).boxed().collect(Collectors.toList());
     }
 
+    public static List<Integer> arrayToList(int[] array, int size) {
+        List<Integer> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(array[i]);
+        }
+        return list;
+    }
+
     public static int[] listToArray(List<Integer> list) {
         return list.stream().mapToInt(i -> i).toArray();
     }
@@ -47,7 +55,25 @@ public abstract class Util {
     }
 
     public static String sequenceNum(int[] numbers) {
-        return sequenceNum(arrayToList(numbers));
+        return sequenceNum(numbers, numbers.length);
+    }
+
+    /* Same as sequenceNum on the first size values of numbers, without boxing them */
+    public static String sequenceNum(int[] numbers, int size) {
+        StringBuilder sb = new StringBuilder();
+        if (size == 0) return sb.toString();
+        int begin = numbers[0]; int end = begin;
+        for (int i = 1; i < size; i++) {
+            int cur = numbers[i];
+            if (cur == end || cur == end + 1)
+                end = cur;
+            else {
+                appendRange(sb, begin, end);
+                begin = end = cur;
+            }
+        }
+        appendRange(sb, begin, end);
+        return sb.substring(1);
     }
 
     public static <V extends Serializable> V deepCopy(V v) {
@@ -89,6 +115,25 @@ public abstract class Util {
         }
         return isetValues;
     }
+
+    /* Allocation-free helper to work on choco sets: copies the values of iSet1 which are not in iSet2 to buffer and
+     * returns their number. The buffer must be able to hold iSet1 (see growBuffer). It walks the shared iterator of
+     * iSet1: never nest it with another walk of the same set. */
+    public static int difference(ISet iSet1, ISet iSet2, int[] buffer) {
+        int size = 0;
+        ISetIterator iterator = iSet1.iterator();
+        while(iterator.hasNext()) {
+            int value = iterator.nextInt();
+            if(!iSet2.contains(value)) buffer[size++] = value;
+        }
+        return size;
+    }
+
+    /* Returns buffer if it holds at least size values, else a bigger scratch buffer to keep instead */
+    public static int[] growBuffer(int[] buffer, int size) {
+        if(buffer != null && buffer.length >= size) return buffer;
+        return new int[Math.max(size, buffer == null ? 0 : 2 * buffer.length)];
+    }
     /* Helper functions to work on streams */
     public static <K, V> Collector<Map.Entry<K, V>, ?, Map<K,V>> toMap() {
         return Collectors.toMap(Map.Entry<K, V>::getKey, Map.Entry<K, V>::getValue, (v1, v2) -> v1,
@@ -7,52 +7,94 @@ import org.chocosolver.solver.variables.IVariableMonitor;
 import org.chocosolver.solver.variables.SetVar;
 import org.chocosolver.solver.variables.Variable;
 import org.chocosolver.solver.variables.events.IEventType;
+import org.chocosolver.util.objects.setDataStructures.ISet;
 import org.chocosolver.util.objects.setDataStructures.ISetIterator;
 
 import java.util.*;
 
 class VariableMonitor implements IVariableMonitor<SetVar> {
 
-    Set<Integer> lastLB;
-    Set<Integer> lastUB;
+    BitSet lastLB;
+    BitSet lastUB;
 
-    static Map<SetVar, VariableMonitor> variableMonitorMap = new LinkedHashMap<>();
+    // Scratch buffers reused on every update
+    int[] addedLB = new int[0];
+    int[] removedLB = new int[0];
+    int[] addedUB = new int[0];
+    int[] removedUB = new int[0];
+
+    public void clear() {
+        lastLB.clear();
+        lastUB.clear();
+    }
 
     public VariableMonitor() {
-        lastLB = new LinkedHashSet<>();
-        lastUB = new LinkedHashSet<>();
+        lastLB = new BitSet();
+        lastUB = new BitSet();
+    }
+
+    /* Copies the values of newValues missing from lastValues to added and returns their number */
+    private static int added(ISet newValues, BitSet lastValues, int[] added) {
+        int size = 0;
+        ISetIterator iterator = newValues.iterator();
+        while(iterator.hasNext()) {
+            int value = iterator.nextInt();
+            if(!lastValues.get(value)) added[size++] = value;
+        }
+        return size;
+    }
+
+    /* Copies the values of lastValues missing from newValues to removed and returns their number */
+    private static int removed(ISet newValues, BitSet lastValues, int[] removed) {
+        int size = 0;
+        for(int value = lastValues.nextSetBit(0); value >= 0; value = lastValues.nextSetBit(value + 1)) {
+            if(!newValues.contains(value)) removed[size++] = value;
+        }
+        return size;
+    }
+
+    private static void update(BitSet lastValues, int[] added, int nbAdded, int[] removed, int nbRemoved) {
+        for(int i = 0; i < nbAdded; i++) lastValues.set(added[i]);
+        for(int i = 0; i < nbRemoved; i++) lastValues.clear(removed[i]);
     }
 
     @Override
     public void onUpdate(SetVar s, IEventType evt) {
+        printUpdate(s, evt);
+    }
 
-        Set<Integer> newLB = Util.isetToSet(s.getLB());
+    /* Prints the values added and removed since the last printed update. Returns false if there was nothing to print */
+    public boolean printUpdate(SetVar s, Object cause) {
 
-        Set<Integer> addedLB = new LinkedHashSet<>(newLB);
-        Set<Integer> removedLB = new LinkedHashSet<>(lastLB);
-        addedLB.removeAll(lastLB);
-        removedLB.removeAll(newLB);
+        ISet newLB = s.getLB();
+        ISet newUB = s.getUB();
 
-        Set<Integer> newUB = Util.isetToSet(s.getUB());
+        addedLB = Util.growBuffer(addedLB, newLB.size());
+        removedLB = Util.growBuffer(removedLB, lastLB.cardinality());
+        addedUB = Util.growBuffer(addedUB, newUB.size());
+        removedUB = Util.growBuffer(removedUB, lastUB.cardinality());
 
-        Set<Integer> addedUB = new LinkedHashSet<>(newUB);
-        Set<Integer> removedUB = new LinkedHashSet<>(lastUB);
-        addedUB.removeAll(lastUB);
-        removedUB.removeAll(newUB);
+        int nbAddedLB = added(newLB, lastLB, addedLB);
+        int nbRemovedLB = removed(newLB, lastLB, removedLB);
+        int nbAddedUB = added(newUB, lastUB, addedUB);
+        int nbRemovedUB = removed(newUB, lastUB, removedUB);
 
-        if(addedLB.isEmpty() && removedLB.isEmpty() && addedUB.isEmpty()) return;
+        if(nbAddedLB == 0 && nbRemovedLB == 0 && nbAddedUB == 0) return false;
 
         System.out.format("%s: +[%s(%d) / %s(%d)] | -[%s(%d) / %s(%d)] (%d/%d) (%d/%d) updated due to %s\n",
-                s.getName(), Util.sequenceNum(addedLB), addedLB.size(), Util.sequenceNum(addedUB), addedUB.size(),
-                Util.sequenceNum(removedLB), removedLB.size(), Util.sequenceNum(removedUB), removedUB.size(),
-                s.getCard().getLB(), s.getCard().getUB(), newLB.size(), newUB.size(), evt);
+                s.getName(), Util.sequenceNum(addedLB, nbAddedLB), nbAddedLB, Util.sequenceNum(addedUB, nbAddedUB), nbAddedUB,
+                Util.sequenceNum(removedLB, nbRemovedLB), nbRemovedLB, Util.sequenceNum(removedUB, nbRemovedUB), nbRemovedUB,
+                s.getCard().getLB(), s.getCard().getUB(), newLB.size(), newUB.size(), cause);
 
-        lastLB = newLB;
-        lastUB = newUB;
+        update(lastLB, addedLB, nbAddedLB, removedLB, nbRemovedLB);
+        update(lastUB, addedUB, nbAddedUB, removedUB, nbRemovedUB);
+        return true;
     }
 
     public static void logOnUpdate(List< ? extends Variable> variableList) {
 
+        // Monitors of the set variables of this model, cleared on its restarts
+        Map<SetVar, VariableMonitor> variableMonitorMap = new LinkedHashMap<>();
         for(Variable v: variableList) {
             try {
                 SetVar var = v.asSetVar();
@@ -74,10 +116,7 @@ class VariableMonitor implements IVariableMonitor<SetVar> {
             @Override
             public void beforeRestart() {
 
-                variableMonitorMap.forEach((s, variableMonitor) -> {
-                    variableMonitor.lastLB.clear();
-                    variableMonitor.lastUB.clear();
-                });
+                variableMonitorMap.forEach((s, variableMonitor) -> variableMonitor.clear());
             }
         });
 
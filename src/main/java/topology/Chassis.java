@@ -2,7 +2,6 @@ package topology;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 public class Chassis extends AllocationUnit {
@@ -20,23 +19,20 @@ public class Chassis extends AllocationUnit {
     public int capacity;
 
     private  int nextIndex = 0;
-    private static int nextGlobalIndex = 0;
 
-    public Chassis(String chassisName, int chassisIndex, Rack parentRack, Map<String, List<Integer>> chassisData) {
-        name = chassisName;
+    /* C is the position of the chassis in the compiled topology */
+    public Chassis(int chassisIndex, Rack parentRack, CompiledTopology topology, int c) {
+        name = topology.chassisNames[c];
         index = chassisIndex;
-        globalIndex = nextGlobalIndex++;
+        globalIndex = parentRack.zone.nextChassisIndex++;
 
         zone = parentRack.zone;
         parent = rack = parentRack;
 
         childList = hostList = new ArrayList<>();
-        int hostIndex = 0;
-        for(Map.Entry<String, List<Integer>> entry: chassisData.entrySet()) {
-            String hostName = entry.getKey();
-            List<Integer> hostData = entry.getValue();
-            hostList.add(new Host(hostName, hostIndex, this, hostData));
-            hostIndex++;
+        int firstHost = topology.chassisHostStart[c];
+        for(int h = firstHost; h < topology.chassisHostStart[c + 1]; h++) {
+            hostList.add(new Host(h - firstHost, this, topology, h));
         }
 
         hostCapacity = hostList.size();
@@ -0,0 +1,266 @@
+package topology;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Flattened topology of a zone, with the disk capacities already adjusted by the fill level.
+ *
+ * Racks, chassis and hosts are stored in zone order, each level pointing to the range of its children in the
+ * next one: the chassis of rack r are rackChassisStart[r] .. rackChassisStart[r + 1] - 1, and so on down to disks.
+ */
+public class CompiledTopology {
+
+    static final int MAGIC = 0x50544f50; // "PTOP"
+    static final int VERSION = 1;
+
+    public final String[] rackNames;
+    public final String[] chassisNames;
+    public final String[] hostNames;
+
+    public final int[] rackChassisStart;
+    public final int[] chassisHostStart;
+    public final int[] hostDiskStart;
+
+    public final int[] diskCapacity;
+    public final int[] diskCapacityUsed;
+
+    CompiledTopology(String[] rackNames, String[] chassisNames, String[] hostNames,
+                     int[] rackChassisStart, int[] chassisHostStart, int[] hostDiskStart,
+                     int[] diskCapacity, int[] diskCapacityUsed) {
+        this.rackNames = rackNames;
+        this.chassisNames = chassisNames;
+        this.hostNames = hostNames;
+        this.rackChassisStart = rackChassisStart;
+        this.chassisHostStart = chassisHostStart;
+        this.hostDiskStart = hostDiskStart;
+        this.diskCapacity = diskCapacity;
+        this.diskCapacityUsed = diskCapacityUsed;
+    }
+
+    /* Compiles a rack -> chassis -> host -> disk capacities map, used as is */
+    public static CompiledTopology fromData(Map<String, Map<String, Map<String, List<Integer>>>> zoneData) {
+        Builder builder = new Builder(1);
+        zoneData.forEach((rack, rackData) ->
+                rackData.forEach((chassis, chassisData) ->
+                        chassisData.forEach((host, hostData) ->
+                                builder.addHost(rack, chassis, host, hostData.stream().mapToInt(Integer::intValue).toArray(), hostData.size()))));
+        return builder.build(1);
+    }
+
+    /* Rack -> chassis -> host -> disk capacities map, either the raw or the used capacities */
+    public Map<String, Map<String, Map<String, List<Integer>>>> toData(boolean used) {
+        int[] capacities = used ? diskCapacityUsed : diskCapacity;
+        Map<String, Map<String, Map<String, List<Integer>>>> zoneData = new LinkedHashMap<>();
+        for (int r = 0; r < rackNames.length; r++) {
+            Map<String, Map<String, List<Integer>>> rackData = new LinkedHashMap<>();
+            for (int c = rackChassisStart[r]; c < rackChassisStart[r + 1]; c++) {
+                Map<String, List<Integer>> chassisData = new LinkedHashMap<>();
+                for (int h = chassisHostStart[c]; h < chassisHostStart[c + 1]; h++) {
+                    List<Integer> hostData = new ArrayList<>();
+                    for (int d = hostDiskStart[h]; d < hostDiskStart[h + 1]; d++) {
+                        hostData.add(capacities[d]);
+                    }
+                    chassisData.put(hostNames[h], hostData);
+                }
+                rackData.put(chassisNames[c], chassisData);
+            }
+            zoneData.put(rackNames[r], rackData);
+        }
+        return zoneData;
+    }
+
+    /**
+     * Accumulates hosts in zone order and adjusts the disk capacities by the fill level, carrying the rounding
+     * over to the next disk. Consecutive hosts with the same rack (and chassis) name share it.
+     */
+    static class Builder {
+        final double fillPercent;
+
+        final List<String> rackNames = new ArrayList<>();
+        final List<String> chassisNames = new ArrayList<>();
+        final List<String> hostNames = new ArrayList<>();
+        final List<Integer> rackChassisStart = new ArrayList<>();
+        final List<Integer> chassisHostStart = new ArrayList<>();
+        final List<Integer> hostDiskStart = new ArrayList<>();
+
+        int[] diskCapacity = new int[16];
+        int[] diskCapacityUsed = new int[16];
+        int nbDisks = 0;
+
+        double carryAhead = 0;
+        int capacityUsed = 0;
+
+        Builder(double fillPercent) {
+            this.fillPercent = fillPercent;
+        }
+
+        void addHost(String rack, String chassis, String host, int[] diskCapacities, int size) {
+            boolean newRack = rackNames.isEmpty() || !rackNames.get(rackNames.size() - 1).equals(rack);
+            if (newRack) {
+                rackNames.add(rack);
+                rackChassisStart.add(chassisNames.size());
+            }
+            if (newRack || !chassisNames.get(chassisNames.size() - 1).equals(chassis)) {
+                chassisNames.add(chassis);
+                chassisHostStart.add(hostNames.size());
+            }
+            hostNames.add(host);
+            hostDiskStart.add(nbDisks);
+
+            if (nbDisks + size > diskCapacity.length) {
+                diskCapacity = Arrays.copyOf(diskCapacity, Math.max(2 * diskCapacity.length, nbDisks + size));
+                diskCapacityUsed = Arrays.copyOf(diskCapacityUsed, diskCapacity.length);
+            }
+            for (int i = 0; i < size; i++) {
+                double diskCapacityDouble = (diskCapacities[i] * fillPercent) + carryAhead;
+                int used = (int) diskCapacityDouble;
+                carryAhead = diskCapacityDouble - (double) used;
+                capacityUsed += used;
+
+                diskCapacity[nbDisks] = diskCapacities[i];
+                diskCapacityUsed[nbDisks] = used;
+                nbDisks++;
+            }
+        }
+
+        CompiledTopology build(int replicationFactor) {
+            if (capacityUsed % replicationFactor != 0) {
+                System.out.format("Capacity %d is not divisible by %d. Fixing last capacity", capacityUsed, replicationFactor);
+                diskCapacityUsed[nbDisks - 1] -= capacityUsed % replicationFactor;
+            }
+
+            return new CompiledTopology(
+                    rackNames.toArray(new String[0]),
+                    chassisNames.toArray(new String[0]),
+                    hostNames.toArray(new String[0]),
+                    toStartArray(rackChassisStart, chassisNames.size()),
+                    toStartArray(chassisHostStart, hostNames.size()),
+                    toStartArray(hostDiskStart, nbDisks),
+                    Arrays.copyOf(diskCapacity, nbDisks),
+                    Arrays.copyOf(diskCapacityUsed, nbDisks));
+        }
+
+        private static int[] toStartArray(List<Integer> start, int end) {
+            int[] array = new int[start.size() + 1];
+            for (int i = 0; i < start.size(); i++) {
+                array[i] = start.get(i);
+            }
+            array[start.size()] = end;
+            return array;
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        byte[][][] names = {encode(rackNames), encode(chassisNames), encode(hostNames)};
+        int[][] arrays = {rackChassisStart, chassisHostStart, hostDiskStart, diskCapacity, diskCapacityUsed};
+
+        int size = 2 * Integer.BYTES;
+        for (int[] array: arrays) {
+            size += Integer.BYTES * (1 + array.length);
+        }
+        for (byte[][] table: names) {
+            size += Integer.BYTES;
+            for (byte[] name: table) {
+                size += Integer.BYTES + name.length;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        for (int[] array: arrays) {
+            buffer.putInt(array.length);
+            for (int value: array) {
+                buffer.putInt(value);
+            }
+        }
+        for (byte[][] table: names) {
+            buffer.putInt(table.length);
+            for (byte[] name: table) {
+                buffer.putInt(name.length).put(name);
+            }
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /* Fails with an IOException on any file which is not a complete and consistent compiled topology */
+    public static CompiledTopology read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(path + " is not a compiled topology of version " + VERSION);
+            }
+            int[][] arrays = new int[5][];
+            for (int i = 0; i < arrays.length; i++) {
+                arrays[i] = new int[readLength(buffer, Integer.BYTES, path)];
+                buffer.asIntBuffer().get(arrays[i]);
+                buffer.position(buffer.position() + Integer.BYTES * arrays[i].length);
+            }
+            String[][] names = new String[3][];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = new String[readLength(buffer, Integer.BYTES, path)];
+                for (int j = 0; j < names[i].length; j++) {
+                    byte[] name = new byte[readLength(buffer, 1, path)];
+                    buffer.get(name);
+                    names[i][j] = new String(name, StandardCharsets.UTF_8);
+                }
+            }
+
+            CompiledTopology topology = new CompiledTopology(names[0], names[1], names[2],
+                    arrays[0], arrays[1], arrays[2], arrays[3], arrays[4]);
+            if (!topology.isConsistent()) {
+                throw new IOException(path + " is not a consistent compiled topology");
+            }
+            return topology;
+        }
+    }
+
+    /* Reads a length of elements of ELEMENTSIZE bytes, which must fit in the rest of BUFFER */
+    private static int readLength(ByteBuffer buffer, int elementSize, Path path) throws IOException {
+        int length = buffer.remaining() < Integer.BYTES ? -1 : buffer.getInt();
+        if (length < 0 || (long) length * elementSize > buffer.remaining()) {
+            throw new IOException(path + " is truncated");
+        }
+        return length;
+    }
+
+    /* Whether each level covers the next one in increasing ranges, down to one capacity of each kind per disk */
+    boolean isConsistent() {
+        return isStartArray(rackChassisStart, rackNames.length, chassisNames.length)
+                && isStartArray(chassisHostStart, chassisNames.length, hostNames.length)
+                && isStartArray(hostDiskStart, hostNames.length, diskCapacity.length)
+                && diskCapacityUsed.length == diskCapacity.length
+                && Arrays.stream(diskCapacity).allMatch(c -> c >= 0)
+                && Arrays.stream(diskCapacityUsed).allMatch(c -> c >= 0);
+    }
+
+    private static boolean isStartArray(int[] start, int nbUnits, int nbChildren) {
+        if (start.length != nbUnits + 1 || start[0] != 0 || start[nbUnits] != nbChildren) return false;
+        for (int i = 0; i < nbUnits; i++) {
+            if (start[i] > start[i + 1]) return false;
+        }
+        return true;
+    }
+
+    private static byte[][] encode(String[] names) {
+        byte[][] encoded = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+}
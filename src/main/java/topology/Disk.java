@@ -14,12 +14,10 @@ public class Disk extends AllocationUnit{
 
     public int capacity;
 
-    private static int nextGlobalIndex = 0;
-
     public Disk(int diskIndex, Host parentHost, int diskCapacity) {
         name = parentHost.name+"["+(diskIndex+1)+"]";
         index = diskIndex;
-        globalIndex = nextGlobalIndex++;
+        globalIndex = parentHost.zone.nextDiskIndex++;
 
         zone = parentHost.zone;
         rack = parentHost.rack;
@@ -16,22 +16,20 @@ public class Host extends AllocationUnit {
     public int diskCapacity;
     public int capacity;
 
-    private static int nextGlobalIndex = 0;
-
-    public Host(String hostName, int hostIndex, Chassis parentChassis, List<Integer> hostData) {
-        name = hostName;
+    /* H is the position of the host in the compiled topology */
+    public Host(int hostIndex, Chassis parentChassis, CompiledTopology topology, int h) {
+        name = topology.hostNames[h];
         index = hostIndex;
-        globalIndex = nextGlobalIndex++;
+        globalIndex = parentChassis.zone.nextHostIndex++;
 
         zone = parentChassis.zone;
         rack = parentChassis.rack;
         parent = chassis = parentChassis;
 
         childList = diskList = new ArrayList<>();
-        int diskIndex = 0;
-        for(int diskCapacity: hostData) {
-            diskList.add(new Disk(diskIndex, this, diskCapacity));
-            diskIndex++;
+        int firstDisk = topology.hostDiskStart[h];
+        for(int d = firstDisk; d < topology.hostDiskStart[h + 1]; d++) {
+            diskList.add(new Disk(d - firstDisk, this, topology.diskCapacityUsed[d]));
         }
 
         diskCapacity = diskList.size();
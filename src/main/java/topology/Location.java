@@ -9,12 +9,10 @@ public class Location extends AllocationUnit{
     public Host host;
     public Disk disk;
 
-    private static int nextGlobalIndex = 0;
-
     public Location(int locationIndex, Disk parentDisk) {
         name = parentDisk.name+"["+(locationIndex+1)+"]";
         index = locationIndex;
-        globalIndex = nextGlobalIndex++;
+        globalIndex = parentDisk.zone.nextLocationIndex++;
 
         zone = parentDisk.zone;
         rack = parentDisk.rack;
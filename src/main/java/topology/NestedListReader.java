@@ -0,0 +1,105 @@
+package topology;
+
+import com.google.gson.stream.JsonReader;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.events.*;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for the topology and allocation files: nested mappings with DEPTH levels of keys whose leaves
+ * are lists of integers. Each leaf is handed to the handler as soon as it is read, without building the tree.
+ *
+ * Files ending with .json are read with Gson, anything else is read as YAML.
+ */
+public class NestedListReader {
+
+    public interface Handler {
+        /* keys holds the DEPTH keys leading to the leaf, only the first size values are valid.
+           Both arrays are reused for the next leaf */
+        void onList(String[] keys, int[] values, int size);
+    }
+
+    final int depth;
+    final Handler handler;
+
+    final String[] keys;
+    int[] values = new int[16];
+    int size;
+
+    private NestedListReader(int depth, Handler handler) {
+        this.depth = depth;
+        this.handler = handler;
+        this.keys = new String[depth];
+    }
+
+    public static void read(String fileName, int depth, Handler handler) throws IOException {
+        NestedListReader nestedListReader = new NestedListReader(depth, handler);
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName)))) {
+            if (fileName.endsWith(".json")) {
+                nestedListReader.readJson(reader);
+            } else {
+                nestedListReader.readYaml(reader);
+            }
+        }
+    }
+
+    private void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        values[size++] = value;
+    }
+
+    private void readYaml(Reader reader) {
+        // Level of the mapping being read, -1 outside the root mapping
+        int level = -1;
+        boolean inList = false;
+
+        for (Event event: new Yaml().parse(reader)) {
+            if (event instanceof MappingStartEvent) {
+                level++;
+            } else if (event instanceof MappingEndEvent) {
+                level--;
+            } else if (event instanceof SequenceStartEvent) {
+                inList = true;
+                size = 0;
+            } else if (event instanceof SequenceEndEvent) {
+                inList = false;
+                handler.onList(keys, values, size);
+            } else if (event instanceof ScalarEvent) {
+                String value = ((ScalarEvent) event).getValue();
+                if (inList) {
+                    add(Integer.parseInt(value));
+                } else if (level >= 0 && level < depth) {
+                    keys[level] = value;
+                }
+            }
+        }
+    }
+
+    private void readJson(Reader reader) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        readJsonMapping(jsonReader, 0);
+    }
+
+    private void readJsonMapping(JsonReader jsonReader, int level) throws IOException {
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            keys[level] = jsonReader.nextName();
+            if (level + 1 < depth) {
+                readJsonMapping(jsonReader, level + 1);
+            } else {
+                size = 0;
+                jsonReader.beginArray();
+                while (jsonReader.hasNext()) {
+                    add(jsonReader.nextInt());
+                }
+                jsonReader.endArray();
+                handler.onList(keys, values, size);
+            }
+        }
+        jsonReader.endObject();
+    }
+}
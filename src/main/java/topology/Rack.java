@@ -2,7 +2,6 @@ package topology;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 public class Rack extends AllocationUnit {
@@ -19,22 +18,17 @@ public class Rack extends AllocationUnit {
     public int diskCapacity;
     public int capacity;
 
-    private static int nextGlobalIndex = 0;
-
-    public Rack(String rackName, int rackIndex, Zone parentZone, Map<String, Map<String, List<Integer>>> rackData) {
-        name = rackName;
+    public Rack(int rackIndex, Zone parentZone, CompiledTopology topology) {
+        name = topology.rackNames[rackIndex];
         index = rackIndex;
-        globalIndex = nextGlobalIndex++;
+        globalIndex = parentZone.nextRackIndex++;
 
         parent = zone = parentZone;
 
         childList = chassisList = new ArrayList<>();
-        int chassisIndex = 0;
-        for (Map.Entry<String, Map<String, List<Integer>>> entry : rackData.entrySet()) {
-            String chassisName = entry.getKey();
-            Map<String, List<Integer>> chassisData = entry.getValue();
-            chassisList.add(new Chassis(chassisName, chassisIndex, this, chassisData));
-            chassisIndex++;
+        int firstChassis = topology.rackChassisStart[rackIndex];
+        for (int c = firstChassis; c < topology.rackChassisStart[rackIndex + 1]; c++) {
+            chassisList.add(new Chassis(c - firstChassis, this, topology, c));
         }
 
         chassisCapacity = chassisList.size();
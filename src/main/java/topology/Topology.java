@@ -4,6 +4,13 @@ import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -12,56 +19,110 @@ import java.util.stream.Collectors;
 public class Topology {
 
     double fillPercent;
-    public Map<String, Map<String, Map<String, List<Integer>>>> data;
-    public Map<String, Map<String, Map<String, List<Integer>>>> dataUsed;
+    public CompiledTopology compiled;
 
     public Topology(String fileName, double fillPercent, int replicationFactor) throws FileNotFoundException {
+        this(fileName, fillPercent, replicationFactor, null);
+    }
+
+    /* Topology of a rack -> chassis -> host -> disk capacities map, e.g. a modified getData() */
+    public Topology(Map<String, Map<String, Map<String, List<Integer>>>> zoneData, double fillPercent, int replicationFactor) {
         this.fillPercent = fillPercent;
 
-        double carryAhead = 0;
-        int capacityUsed = 0;
-        data = readFromFile(fileName);
-
-        dataUsed = new LinkedHashMap<>();
-        Map<String, Map<String, List<Integer>>> rackData = null;
-        Map<String, List<Integer>> chassisData = null;
-        List<Integer> hostData = null;
-
-        for(Map.Entry<String, Map<String, Map<String, List<Integer>>>> zEntry: data.entrySet()) {
-            String rack = zEntry.getKey();
-            rackData = new LinkedHashMap<>();
-            for (Map.Entry<String, Map<String, List<Integer>>> rEntry: zEntry.getValue().entrySet()) {
-                String chassis = rEntry.getKey();
-                chassisData = new LinkedHashMap<>();
-                for(Map.Entry<String, List<Integer>> cEntry: rEntry.getValue().entrySet()) {
-                    String host = cEntry.getKey();
-                    hostData = new ArrayList<>();
-                    for (int diskCapacity: cEntry.getValue()) {
-                        double diskCapacityDouble = (diskCapacity * fillPercent) + carryAhead;
-                        int diskCapacityUsed = (int) diskCapacityDouble;
-                        carryAhead = diskCapacityDouble - (double) diskCapacityUsed;
-                        capacityUsed += diskCapacityUsed;
-                        hostData.add(diskCapacityUsed);
-                    }
-                    chassisData.put(host, hostData);
-                }
-                rackData.put(chassis, chassisData);
+        CompiledTopology.Builder builder = new CompiledTopology.Builder(fillPercent);
+        zoneData.forEach((rack, rackData) ->
+                rackData.forEach((chassis, chassisData) ->
+                        chassisData.forEach((host, diskCapacities) ->
+                                builder.addHost(rack, chassis, host, diskCapacities.stream().mapToInt(Integer::intValue).toArray(), diskCapacities.size()))));
+        compiled = builder.build(replicationFactor);
+    }
+
+    /* Reuses the compiled topology from CACHEDIR when the file and the fill level did not change */
+    public Topology(String fileName, double fillPercent, int replicationFactor, String cacheDir) throws FileNotFoundException {
+        this.fillPercent = fillPercent;
+
+        Path cacheFile = null;
+        if(cacheDir != null) {
+            try {
+                cacheFile = Paths.get(cacheDir, getCacheKey(fileName, fillPercent, replicationFactor) + ".topo");
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException | NoSuchAlgorithmException e) {
+                System.out.println("Unable to use compiled topology cache: " + e);
+            }
+        }
+        if(cacheFile != null && Files.exists(cacheFile)) {
+            // Any unreadable cache file is a miss, replaced by the topology parsed below
+            try {
+                compiled = CompiledTopology.read(cacheFile);
+                System.out.println("Loaded compiled topology: " + cacheFile);
+                return;
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Unable to read compiled topology " + cacheFile + ": " + e);
             }
-            dataUsed.put(rack, rackData);
         }
 
-        if(capacityUsed % replicationFactor != 0) {
-            System.out.format("Capacity %d is not divisible by %d. Fixing last capacity", capacityUsed, replicationFactor);
-            int lastCapacity = hostData.get(hostData.size()-1);
-            lastCapacity-= capacityUsed % replicationFactor;
-            hostData.set(hostData.size()-1, lastCapacity);
+        CompiledTopology.Builder builder = new CompiledTopology.Builder(fillPercent);
+        if(fileName.endsWith(".top")) {
+            readFromTopFile(fileName).forEach((rack, rackData) ->
+                    rackData.forEach((chassis, chassisData) ->
+                            chassisData.forEach((host, diskCapacities) ->
+                                    builder.addHost(rack, chassis, host, diskCapacities.stream().mapToInt(Integer::intValue).toArray(), diskCapacities.size()))));
+        } else {
+            read(fileName, (keys, values, size) -> builder.addHost(keys[0], keys[1], keys[2], values, size));
         }
+        compiled = builder.build(replicationFactor);
+
+        if(cacheFile != null) {
+            try {
+                // Written aside then moved, so that concurrent readers never see a partial file
+                Files.createDirectories(cacheFile.getParent());
+                Path tempFile = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+                compiled.write(tempFile);
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.out.println("Unable to write compiled topology: " + e);
+            }
+        }
+    }
 
+    /* SHA-256 of the topology file, with the parameters changing the used capacities */
+    private static String getCacheKey(String fileName, double fillPercent, int replicationFactor) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream inputStream = new DigestInputStream(new FileInputStream(fileName), digest)) {
+            byte[] buffer = new byte[1 << 16];
+            while (inputStream.read(buffer) != -1) { }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b: digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.append("-").append(fillPercent).append("-").append(replicationFactor).toString();
+    }
+
+    public Map<String, Map<String, Map<String, List<Integer>>>> getData() {
+        return compiled.toData(false);
+    }
+
+    public Map<String, Map<String, Map<String, List<Integer>>>> getDataUsed() {
+        return compiled.toData(true);
+    }
+
+    private static void read(String fileName, NestedListReader.Handler handler) throws FileNotFoundException {
+        try {
+            NestedListReader.read(fileName, 3, handler);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            System.out.println("Unable to read topology file: " + fileName);
+            e.printStackTrace();
+        }
     }
 
     public static String getZoneNameFromFileName(String fileName) {
         Pattern topFileNamePattern = Pattern.compile("zone-(.*).top");
-        Pattern yamlFileNamePattern = Pattern.compile("topo-(.*).yaml");
+        Pattern yamlFileNamePattern = Pattern.compile("topo-(.*).(yaml|json)");
         Matcher m;
 
         m = topFileNamePattern.matcher(fileName);
@@ -77,9 +138,13 @@ public class Topology {
     }
 
     public static Map<String, Map<String, Map<String, List<Integer>>>> readFromFile(String fileName) throws FileNotFoundException {
-        if(fileName.endsWith(".yaml")) {
-            InputStream inputStream = new FileInputStream(fileName);
-            return new Yaml().load(inputStream);
+        if(fileName.endsWith(".yaml") || fileName.endsWith(".json")) {
+            Map<String, Map<String, Map<String, List<Integer>>>> zoneTopology = new LinkedHashMap<>();
+            read(fileName, (keys, values, size) -> zoneTopology
+                    .computeIfAbsent(keys[0], r -> new LinkedHashMap<>())
+                    .computeIfAbsent(keys[1], c -> new LinkedHashMap<>())
+                    .put(keys[2], Arrays.stream(values, 0, size).boxed().collect(Collectors.toList())));
+            return zoneTopology;
         } else if (fileName.endsWith(".top")){
             return readFromTopFile(fileName);
         }
@@ -20,21 +20,26 @@ public class Zone extends AllocationUnit {
     final public int diskCapacity;
     final public int capacity;
 
-    private static int nextGlobalIndex = 0;
+    // Global indexes given so far on each level, a global index being the position in the list of the zone
+    int nextRackIndex = 0;
+    int nextChassisIndex = 0;
+    int nextHostIndex = 0;
+    int nextDiskIndex = 0;
+    int nextLocationIndex = 0;
 
     public Zone(String zoneName, Map<String, Map<String, Map<String, List<Integer>>>> zoneData) {
+        this(zoneName, CompiledTopology.fromData(zoneData));
+    }
+
+    public Zone(String zoneName, CompiledTopology topology) {
         name = zoneName;
 
-        globalIndex = nextGlobalIndex++;
+        globalIndex = 0;
 
         parent = null;
         childList = rackList = new ArrayList<>();
-        int rackIndex = 0;
-        for(Map.Entry<String, Map<String, Map<String, List<Integer>>>> entry: zoneData.entrySet()) {
-            String rackName = entry.getKey();
-            Rack rack = new Rack(rackName, rackIndex, this, entry.getValue());
-            rackList.add(rack);
-            rackIndex++;
+        for(int rackIndex = 0; rackIndex < topology.rackNames.length; rackIndex++) {
+            rackList.add(new Rack(rackIndex, this, topology));
         }
 
         rackCapacity = rackList.size();
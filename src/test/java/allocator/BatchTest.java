@@ -0,0 +1,56 @@
+package allocator;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Zones allocated concurrently by Batch must get the allocations they get when allocated one after the other.
+ */
+public class BatchTest {
+
+    static final List<String> TOPOLOGY_FILES = List.of("topo-small-10.yaml", "topo-medium-10.yaml", "topo-large-2.yaml");
+
+    @Test
+    public void concurrentRunsMatchSequentialRuns() throws Exception {
+        File sequentialDir = Files.createTempDirectory("batch-sequential").toFile();
+        List<Batch.ZoneRun> sequentialZones = newZoneRuns();
+        for (Batch.ZoneRun zone: sequentialZones) {
+            Batch.solve(zone, List.of(), sequentialDir.getPath());
+        }
+
+        File concurrentDir = Files.createTempDirectory("batch-concurrent").toFile();
+        List<Batch.ZoneRun> concurrentZones = newZoneRuns();
+        Batch.run(concurrentZones, List.of(), concurrentDir.getPath(), concurrentZones.size());
+
+        for (int i = 0; i < sequentialZones.size(); i++) {
+            Batch.ZoneRun sequential = sequentialZones.get(i);
+            Batch.ZoneRun concurrent = concurrentZones.get(i);
+            assertNull(sequential.name + ": " + sequential.error, sequential.error);
+            assertNull(concurrent.name + ": " + concurrent.error, concurrent.error);
+            assertTrue(sequential.name + " not solved", sequential.result.isSolved());
+            assertEquals(sequential.name, toLists(sequential.result.latestAllocation.data),
+                    toLists(concurrent.result.latestAllocation.data));
+        }
+    }
+
+    static List<Batch.ZoneRun> newZoneRuns() {
+        // The tests run in the build directory
+        File dataDir = new File(System.getProperty("basedir", "."), "data");
+        return TOPOLOGY_FILES.stream()
+                .map(file -> new Batch.ZoneRun(new File(dataDir, file).getPath(), ""))
+                .collect(Collectors.toList());
+    }
+
+    /* Comparable copy of allocation DATA */
+    static Map<String, List<Integer>> toLists(Map<String, int[]> data) {
+        Map<String, List<Integer>> lists = new TreeMap<>();
+        data.forEach((disk, partitions) -> lists.put(disk, Arrays.stream(partitions).boxed().collect(Collectors.toList())));
+        return lists;
+    }
+}
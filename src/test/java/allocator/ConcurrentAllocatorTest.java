@@ -0,0 +1,56 @@
+package allocator;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Zones allocated by Allocator.run on separate threads must not share state: each one gets the allocation it gets
+ * alone.
+ */
+public class ConcurrentAllocatorTest {
+
+    static final List<String> TOPOLOGY_FILES = List.of("topo-small-10.yaml", "topo-medium-10.yaml");
+
+    @Test
+    public void concurrentZonesMatchSequentialZones() throws Exception {
+        File dir = Files.createTempDirectory("concurrent-allocator").toFile();
+
+        List<Map<String, List<Integer>>> sequential = new ArrayList<>();
+        for (String file: TOPOLOGY_FILES) {
+            sequential.add(allocate(file, new File(dir, "sequential-" + file + ".part")));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(TOPOLOGY_FILES.size());
+        try {
+            List<Future<Map<String, List<Integer>>>> futures = new ArrayList<>();
+            for (String file: TOPOLOGY_FILES) {
+                futures.add(executor.submit(() -> allocate(file, new File(dir, "concurrent-" + file + ".part"))));
+            }
+            for (int i = 0; i < TOPOLOGY_FILES.size(); i++) {
+                assertEquals(TOPOLOGY_FILES.get(i), sequential.get(i), futures.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /* Allocation of the zone of topology FILE, written to OUTPUTFILE */
+    static Map<String, List<Integer>> allocate(String file, File outputFile) throws Exception {
+        // The tests run in the build directory
+        File topologyFile = new File(new File(System.getProperty("basedir", "."), "data"), file);
+        Allocator.Result result = Allocator.run(new Context(new String[]{"-t", topologyFile.getPath(), "-o", outputFile.getPath()}));
+        assertTrue(file + " not solved", result.isSolved());
+
+        Map<String, List<Integer>> lists = new TreeMap<>();
+        result.latestAllocation.data.forEach((disk, partitions) ->
+                lists.put(disk, Arrays.stream(partitions).boxed().collect(Collectors.toList())));
+        return lists;
+    }
+}
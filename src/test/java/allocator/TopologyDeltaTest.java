@@ -0,0 +1,52 @@
+package allocator;
+
+import org.junit.Test;
+import topology.Disk;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * A localized re-solve must keep the overlap limit between the re-solved disks and the fixed disks around them.
+ */
+public class TopologyDeltaTest {
+
+    @Test
+    public void deltaKeepsOverlapWithFixedDisks() throws Exception {
+        File dir = Files.createTempDirectory("topology-delta").toFile();
+        // The tests run in the build directory
+        String topologyFile = new File(new File(System.getProperty("basedir", "."), "data"), "topo-small-10.yaml").getPath();
+        String allocationFile = new File(dir, "small-10.part").getPath();
+        Allocator.Result initial = Allocator.run(new Context(new String[]{"-t", topologyFile, "-o", allocationFile}));
+        assertTrue(initial.isSolved());
+
+        File deltaFile = new File(dir, "remove-86.txt");
+        Files.writeString(deltaFile.toPath(), "remove 86\n");
+        Allocator.Result result = Allocator.run(new Context(new String[]{"-t", topologyFile, "-i", allocationFile,
+                "-o", new File(dir, "small-10-delta.part").getPath(), "--delta", deltaFile.getPath(),
+                "--neighbourhood-size", "4"}));
+        assertTrue(result.isSolved());
+
+        assertTrue("Overlap above " + result.overlap, maxOverlap(result.latestAllocation) <= result.overlap);
+    }
+
+    /* Largest number of partitions held by two disks of ALLOCATION */
+    static int maxOverlap(Allocation allocation) {
+        List<Set<Integer>> disks = new ArrayList<>();
+        for (Map.Entry<Disk, List<Integer>> entry: allocation.getDiskToPartitionListMap().entrySet()) {
+            disks.add(new HashSet<>(entry.getValue()));
+        }
+        int max = 0;
+        for (int i = 0; i < disks.size(); i++) {
+            for (int j = i + 1; j < disks.size(); j++) {
+                Set<Integer> intersection = new HashSet<>(disks.get(i));
+                intersection.retainAll(disks.get(j));
+                max = Math.max(max, intersection.size());
+            }
+        }
+        return max;
+    }
+}